@@ -0,0 +1,102 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import clojure.lang.Associative;
+import clojure.lang.IMapEntry;
+import clojure.lang.IPersistentMap;
+import clojure.lang.PersistentHashMap;
+import clojure.lang.Var;
+
+/**
+ * Bridge between dynamic environments and the thread bindings of Clojure dynamic Vars.
+ * A Var used as a key in a {@link DynamicEnvironment} is bound by pushing
+ * the Var bindings that the environment changes in a single Clojure frame,
+ * so that Clojure code sees them as if bound with {@code binding},
+ * without undoing bindings that Clojure code made since the enclosing Java bindings;
+ * reading such a key dereferences the Var, so Java code sees bindings made by Clojure code.
+ * This is the only class linked against Clojure, and it is only loaded
+ * once a Var has been bound, so Clojure remains an optional dependency;
+ * it must however be visible from the class loader of this library.
+ */
+final class ClojureVarFrames {
+    private ClojureVarFrames() {}
+
+    static Object assoc(@Nullable Object vars, Object var, Object value) {
+        IPersistentMap map = vars == null ? PersistentHashMap.EMPTY : (IPersistentMap)vars;
+        return map.assoc(var, value);
+    }
+
+    static Object deref(Object var) {
+        return ((Var)var).deref();
+    }
+
+    /**
+     * Returns the bindings of next that are not in previous, with the identical value,
+     * or null if there are none.
+     */
+    @Nullable
+    static Object diff(@Nullable Object previous, Object next) {
+        IPersistentMap result = null;
+        for (Object o : (Iterable<?>)next) {
+            Map.Entry<?, ?> e = (Map.Entry<?, ?>)o;
+            if (!bindsSame(previous, e)) {
+                result = (IPersistentMap)assoc(result, e.getKey(), e.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if next binds some Var differently from previous,
+     * i.e. if {@link #diff} would return a non-null map.
+     */
+    static boolean differs(@Nullable Object previous, Object next) {
+        for (Object o : (Iterable<?>)next) {
+            if (!bindsSame(previous, (Map.Entry<?, ?>)o)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean bindsSame(@Nullable Object vars, Map.Entry<?, ?> e) {
+        if (vars == null) {
+            return false;
+        }
+        IMapEntry old = ((IPersistentMap)vars).entryAt(e.getKey());
+        return old != null && old.val() == e.getValue();
+    }
+
+    static void push(Object vars) {
+        Var.pushThreadBindings((Associative)vars);
+    }
+
+    static void pop() {
+        Var.popThreadBindings();
+    }
+
+    /**
+     * Returns the Clojure thread binding frame of the current thread,
+     * to be conveyed to another thread as by {@code binding-conveyor-fn}.
+     */
+    static Object captureFrame() {
+        return Var.cloneThreadBindingFrame();
+    }
+
+    /**
+     * Installs frame as the Clojure thread binding frame of the current thread,
+     * and returns the previous one.
+     */
+    static Object installFrame(Object frame) {
+        Object previous = Var.getThreadBindingFrame();
+        Var.resetThreadBindingFrame(frame);
+        return previous;
+    }
+}
@@ -0,0 +1,28 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for pushing a binding on a {@link DynamicVariable}.
+ */
+@Name("com.google.leijure.DynamicBind")
+@Label("Dynamic Bind")
+@Category({"Leijure", "DynamicScope"})
+@Description("A DynamicVariable was bound")
+final class DynamicBindEvent extends Event {
+    @Label("Depth")
+    @Description("Depth of the binding stack after the bind")
+    int depth;
+
+    @Label("Bindings")
+    @Description("Number of bindings in the environment bound, or -1 for other variables")
+    int bindings;
+}
@@ -0,0 +1,385 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import org.pcollections.HashPMap;
+import org.pcollections.HashTreePMap;
+
+/**
+ * Immutable set of bindings from K to V, as held by a {@link DynamicEnvironment}.
+ * Up to {@link #SMALL_SIZE} bindings are kept in a flat array of alternating keys and values,
+ * that is scanned linearly by {@link #get} and copied once per batch of new bindings;
+ * past that size, bindings are kept in a {@link HashPMap}.
+ * Bindings of {@link DynamicScope.Key}s are also kept in an array indexed by their slot,
+ * so that {@link #get(DynamicScope.Key)} involves neither hashing nor scanning.
+ * Bindings of Clojure dynamic Vars are also kept in a Clojure map, the changed entries of which
+ * are pushed with {@code Var.pushThreadBindings} whenever these bindings are bound,
+ * see {@link ClojureVarFrames}.
+ */
+public final class DynamicBindings<K, V> {
+    /**
+     * The maximum number of bindings kept in a flat array.
+     */
+    public static final int SMALL_SIZE = 8;
+
+    private static final Object[] NO_KV = new Object[0];
+
+    /**
+     * Stands for null in {@link #slots}, where null means unbound.
+     */
+    private static final Object NULL = new Object();
+
+    private static final DynamicBindings<Object, Object> EMPTY =
+        new DynamicBindings<Object, Object>(NO_KV, HashTreePMap.empty(), NO_KV, null);
+
+    /**
+     * The class {@code clojure.lang.Var} if Clojure is visible from this class, else null.
+     * Vars are recognized with it, so this class doesn't need Clojure unless they are used.
+     */
+    @Nullable
+    static final Class<?> VAR_CLASS = findVarClass();
+
+    /**
+     * True once any Var has been bound, so that binds needn't check for Vars until then.
+     */
+    static volatile boolean hasVars;
+
+    @Nullable
+    private static Class<?> findVarClass() {
+        try {
+            return Class.forName("clojure.lang.Var", false, DynamicBindings.class.getClassLoader());
+        } catch (ClassNotFoundException | LinkageError ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Alternating keys and values, or null if the bindings are only in {@link #map}.
+     */
+    @Nullable
+    private final Object[] kv;
+
+    /**
+     * The bindings as a HashPMap, computed lazily if {@link #kv} is not null.
+     * Racing threads may compute it more than once, but all compute the same map,
+     * which is immutable and safely published.
+     */
+    @Nullable
+    private HashPMap<K, V> map;
+
+    /**
+     * Values bound to each {@link DynamicScope.Key}, indexed by slot, null where unbound,
+     * and {@link #NULL} where bound to null.
+     * Keys registered after these bindings were made have slots beyond the end.
+     */
+    private final Object[] slots;
+
+    /**
+     * All the bindings of Clojure Vars, as a {@code clojure.lang.IPersistentMap}, or null if none.
+     */
+    @Nullable
+    private final Object vars;
+
+    private DynamicBindings(@Nullable Object[] kv, @Nullable HashPMap<K, V> map, Object[] slots,
+                            @Nullable Object vars) {
+        this.kv = kv;
+        this.map = map;
+        this.slots = slots;
+        this.vars = vars;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> DynamicBindings<K, V> empty() {
+        return (DynamicBindings<K, V>)EMPTY;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> DynamicBindings<K, V> of(@Nullable Map<? extends K, ? extends V> bindings) {
+        if (bindings == null || bindings.isEmpty()) {
+            return empty();
+        } else if (bindings instanceof HashPMap && bindings.size() > SMALL_SIZE) {
+            Object[] slots = NO_KV;
+            Object vars = null;
+            for (Map.Entry<? extends K, ? extends V> e : bindings.entrySet()) {
+                if (e.getKey() instanceof DynamicScope.Key) {
+                    slots = plusSlot(slots, (DynamicScope.Key<?>)e.getKey(), e.getValue());
+                }
+                vars = varsPlus(vars, e.getKey(), e.getValue());
+            }
+            return new DynamicBindings<K, V>(null, (HashPMap<K, V>)bindings, slots, vars);
+        } else {
+            return DynamicBindings.<K, V>empty().plusAll(bindings);
+        }
+    }
+
+    public int size() {
+        return kv != null ? kv.length / 2 : map.size();
+    }
+
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public V get(Object k) {
+        if (kv == null) {
+            return map.get(k);
+        }
+        for (int i = 0; i < kv.length; i += 2) {
+            if (kv[i] == k || kv[i].equals(k)) {
+                return (V)kv[i + 1];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the value bound to key, or its default value if unbound.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    public <T> T get(DynamicScope.Key<T> key) {
+        int slot = key.slot;
+        Object[] s = slots;
+        if (slot < s.length) {
+            Object v = s[slot];
+            if (v != null) {
+                return v == NULL ? null : (T)v;
+            }
+        }
+        return key.getDefaultValue();
+    }
+
+    /**
+     * Returns these bindings as a HashPMap.
+     */
+    @SuppressWarnings("unchecked")
+    public HashPMap<K, V> toPMap() {
+        HashPMap<K, V> m = map;
+        if (m == null) {
+            m = HashTreePMap.empty();
+            for (int i = 0; i < kv.length; i += 2) {
+                m = m.plus((K)kv[i], (V)kv[i + 1]);
+            }
+            map = m;
+        }
+        return m;
+    }
+
+    public DynamicBindings<K, V> plus(K k, V v) {
+        return plusPairs(1, k, v, null, null, null, null, null, null);
+    }
+
+    public DynamicBindings<K, V> plus(K k1, V v1, K k2, V v2) {
+        return plusPairs(2, k1, v1, k2, v2, null, null, null, null);
+    }
+
+    public DynamicBindings<K, V> plus(K k1, V v1, K k2, V v2, K k3, V v3) {
+        return plusPairs(3, k1, v1, k2, v2, k3, v3, null, null);
+    }
+
+    public DynamicBindings<K, V> plus(K k1, V v1, K k2, V v2, K k3, V v3, K k4, V v4) {
+        return plusPairs(4, k1, v1, k2, v2, k3, v3, k4, v4);
+    }
+
+    /**
+     * Returns these bindings extended with zero or more pairs of alternating keys and values,
+     * and an optional single last element of a {@code Map<K, V>} of keys and values,
+     * as taken by {@code DynamicScope.RunWith}.
+     */
+    @SuppressWarnings("unchecked")
+    public DynamicBindings<K, V> plusArray(Object... kv) {
+        DynamicBindings<K, V> bindings = plusKv(kv, kv.length & ~1);
+        if (kv.length % 2 == 1) {
+            bindings = bindings.plusAll((Map<K, V>)kv[kv.length - 1]);
+        }
+        return bindings;
+    }
+
+    public DynamicBindings<K, V> plusAll(Map<? extends K, ? extends V> bindings) {
+        Object[] newKv = new Object[2 * bindings.size()];
+        int i = 0;
+        for (Map.Entry<? extends K, ? extends V> e : bindings.entrySet()) {
+            newKv[i++] = e.getKey();
+            newKv[i++] = e.getValue();
+        }
+        return plusKv(newKv, newKv.length);
+    }
+
+    /**
+     * Returns these bindings extended with the first n elements of newKv,
+     * alternating keys and values, all in one batch.
+     */
+    @SuppressWarnings("unchecked")
+    private DynamicBindings<K, V> plusKv(Object[] newKv, int n) {
+        if (n == 0) {
+            return this;
+        }
+        if (DynamicScopeMetrics.active) {
+            DynamicScopeMetrics.onBindings(n / 2);
+        }
+        Object[] newSlots = slots;
+        Object newVars = vars;
+        for (int j = 0; j < n; j += 2) {
+            newSlots = slotPlus(newSlots, newKv[j], newKv[j + 1]);
+            newVars = varsPlus(newVars, newKv[j], newKv[j + 1]);
+        }
+        if (kv != null && kv.length + n <= 2 * SMALL_SIZE) {
+            Object[] result = Arrays.copyOf(kv, kv.length + n);
+            int size = kv.length;
+            for (int j = 0; j < n; j += 2) {
+                size = put(result, size, newKv[j], newKv[j + 1]);
+            }
+            return new DynamicBindings<K, V>(trim(result, size), null, newSlots, newVars);
+        }
+        HashPMap<K, V> m = toPMap();
+        for (int j = 0; j < n; j += 2) {
+            m = m.plus((K)newKv[j], (V)newKv[j + 1]);
+        }
+        return new DynamicBindings<K, V>(null, m, newSlots, newVars);
+    }
+
+    /**
+     * Same as {@link #plusKv} for n pairs passed as arguments, so as not to allocate an array.
+     */
+    @SuppressWarnings("unchecked")
+    private DynamicBindings<K, V> plusPairs(int n, Object k1, Object v1, Object k2, Object v2,
+                                            Object k3, Object v3, Object k4, Object v4) {
+        if (DynamicScopeMetrics.active) {
+            DynamicScopeMetrics.onBindings(n);
+        }
+        Object[] newSlots = slotPlus(slots, k1, v1);
+        Object newVars = varsPlus(vars, k1, v1);
+        if (n > 1) {
+            newSlots = slotPlus(newSlots, k2, v2);
+            newVars = varsPlus(newVars, k2, v2);
+            if (n > 2) {
+                newSlots = slotPlus(newSlots, k3, v3);
+                newVars = varsPlus(newVars, k3, v3);
+                if (n > 3) {
+                    newSlots = slotPlus(newSlots, k4, v4);
+                    newVars = varsPlus(newVars, k4, v4);
+                }
+            }
+        }
+        if (kv != null && kv.length + 2 * n <= 2 * SMALL_SIZE) {
+            Object[] result = Arrays.copyOf(kv, kv.length + 2 * n);
+            int size = put(result, kv.length, k1, v1);
+            if (n > 1) {
+                size = put(result, size, k2, v2);
+                if (n > 2) {
+                    size = put(result, size, k3, v3);
+                    if (n > 3) {
+                        size = put(result, size, k4, v4);
+                    }
+                }
+            }
+            return new DynamicBindings<K, V>(trim(result, size), null, newSlots, newVars);
+        }
+        HashPMap<K, V> m = toPMap().plus((K)k1, (V)v1);
+        if (n > 1) {
+            m = m.plus((K)k2, (V)v2);
+            if (n > 2) {
+                m = m.plus((K)k3, (V)v3);
+                if (n > 3) {
+                    m = m.plus((K)k4, (V)v4);
+                }
+            }
+        }
+        return new DynamicBindings<K, V>(null, m, newSlots, newVars);
+    }
+
+    /**
+     * Binds k to v in the first size elements of the flat array result,
+     * that has room for one more binding, and returns its new size.
+     */
+    private static int put(Object[] result, int size, Object k, Object v) {
+        for (int i = 0; i < size; i += 2) {
+            if (result[i] == k || result[i].equals(k)) {
+                result[i + 1] = v;
+                return size;
+            }
+        }
+        result[size] = k;
+        result[size + 1] = v;
+        return size + 2;
+    }
+
+    private static Object[] trim(Object[] result, int size) {
+        return size < result.length ? Arrays.copyOf(result, size) : result;
+    }
+
+    /**
+     * If k is a {@link DynamicScope.Key}, stores v in its slot in newSlots,
+     * first copying newSlots if it is still the (shared) slots of these bindings.
+     */
+    private Object[] slotPlus(Object[] newSlots, Object k, Object v) {
+        if (!(k instanceof DynamicScope.Key)) {
+            return newSlots;
+        }
+        if (newSlots == slots) {
+            newSlots = Arrays.copyOf(slots, Math.max(slots.length, DynamicScope.Key.count()));
+        }
+        return plusSlot(newSlots, (DynamicScope.Key<?>)k, v);
+    }
+
+    /**
+     * Stores v in the slot of key, in slots if large enough and else in a larger copy.
+     */
+    private static Object[] plusSlot(Object[] slots, DynamicScope.Key<?> key, Object v) {
+        if (key.slot >= slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(key.slot + 1, DynamicScope.Key.count()));
+        }
+        slots[key.slot] = v == null ? NULL : v;
+        return slots;
+    }
+
+    /**
+     * If k is a Clojure Var, returns vars with k bound to v, else vars.
+     */
+    @Nullable
+    private static Object varsPlus(@Nullable Object vars, Object k, Object v) {
+        if (VAR_CLASS == null || !VAR_CLASS.isInstance(k)) {
+            return vars;
+        }
+        hasVars = true;
+        return ClojureVarFrames.assoc(vars, k, v);
+    }
+
+    @Nullable
+    private static Object varsOf(@Nullable Object bindings) {
+        return bindings instanceof DynamicBindings ? ((DynamicBindings<?, ?>)bindings).vars : null;
+    }
+
+    /**
+     * Called by a DynamicVariable when its value changes from previous to next
+     * in a new dynamic extent: pushes the Var bindings of next that differ from those of previous.
+     * Only these are pushed, so that Vars since rebound by Clojure code keep their Clojure binding.
+     */
+    static void pushVars(@Nullable Object previous, @Nullable Object next) {
+        Object v = varsOf(next);
+        Object p = varsOf(previous);
+        if (v != null && v != p) {
+            Object changed = ClojureVarFrames.diff(p, v);
+            if (changed != null) {
+                ClojureVarFrames.push(changed);
+            }
+        }
+    }
+
+    /**
+     * Called by a DynamicVariable when its value reverts from popped to current
+     * at the end of a dynamic extent: pops the Var bindings pushed by {@link #pushVars}, if any.
+     */
+    static void popVars(@Nullable Object popped, @Nullable Object current) {
+        Object v = varsOf(popped);
+        Object c = varsOf(current);
+        if (v != null && v != c && ClojureVarFrames.differs(c, v)) {
+            ClojureVarFrames.pop();
+        }
+    }
+}
@@ -20,25 +20,43 @@ import org.pcollections.PMap;
  * Trivial implementation of a DynamicEnvironment mapping K to V.
  */
 public class DynamicEnvironment<K, V> extends AbstractMap<K, V> {
-    private final DynamicVariable<HashPMap<K, V>> environment;
+    private final DynamicVariable<DynamicBindings<K, V>> environment;
+
+    /**
+     * Creates an environment with the given initial bindings;
+     * if inheritable, new threads start with the bindings current in their parent thread,
+     * captured by reference in O(1).
+     */
+    public DynamicEnvironment(@Nullable Map<K, V> initialValue, boolean inheritable) {
+        environment = new DynamicVariable<DynamicBindings<K, V>>(
+            DynamicBindings.<K, V>of(initialValue), inheritable);
+    }
 
     public DynamicEnvironment(@Nullable Map<K, V> initialValue) {
-        HashPMap<K, V> initialMap;
-        if (initialValue == null) {
-            initialMap = HashTreePMap.<K, V>empty();
-        } else if (initialValue instanceof HashPMap) {
-            initialMap = (HashPMap<K, V>)initialValue;
-        } else {
-            initialMap = HashTreePMap.<K, V>empty().<K, V>plusAll(initialValue);
-        }
-        environment = new DynamicVariable<HashPMap<K, V>>(initialMap);
+        this(initialValue, false);
     }
 
     public DynamicEnvironment() {
-        this(null);
+        this((Map<K, V>)null);
+    }
+
+    /**
+     * Creates an environment whose bindings are held in the given variable,
+     * e.g. a {@link ScopedDynamicVariable}.
+     */
+    DynamicEnvironment(DynamicVariable<DynamicBindings<K, V>> environment) {
+        this.environment = environment;
     }
 
     public HashPMap<K, V> getBindings() {
+        return environment.get().toPMap();
+    }
+
+    /**
+     * Returns the current bindings, to be reinstalled later, possibly in another thread,
+     * with {@link #withBindings}. Since the bindings are immutable, this is O(1).
+     */
+    public DynamicBindings<K, V> snapshot() {
         return environment.get();
     }
 
@@ -54,7 +72,14 @@ public class DynamicEnvironment<K, V> extends AbstractMap<K, V> {
 
     @Nullable
     public V get(Object k) {
-        return getBindings().<K, V>get(k);
+        if (DynamicScopeMetrics.active) {
+            DynamicScopeMetrics.onRead(k);
+        }
+        if (DynamicBindings.VAR_CLASS != null && DynamicBindings.VAR_CLASS.isInstance(k)) {
+            @SuppressWarnings("unchecked") V v = (V)ClojureVarFrames.deref(k);
+            return v;
+        }
+        return environment.get().get(k);
     }
 
     public Set<Map.Entry<K, V>> entrySet () {
@@ -62,75 +87,95 @@ public class DynamicEnvironment<K, V> extends AbstractMap<K, V> {
     }
 
     public <T> T with(Map<? extends K, ? extends V> newBindings, Callable<T> thunk) throws Exception {
-        return environment.<T>with(getBindings().plusAll(newBindings), thunk);
+        return environment.<T>with(snapshot().plusAll(newBindings), thunk);
     }
 
     public <T> T with(Object[] kv, Callable<T> thunk) throws Exception {
-        return environment.<T>with(plusArray(getBindings(), kv), thunk);
+        return environment.<T>with(snapshot().plusArray(kv), thunk);
     }
 
     public <T> T with(K k, V v, Callable<T> thunk) throws Exception {
-        return environment.<T>with(getBindings().plus(k,v), thunk);
+        return environment.<T>with(snapshot().plus(k, v), thunk);
     }
 
     public <T, X extends Exception> T with(Map<? extends K, ? extends V> newBindings,
                                            Fun.RX<T, X> thunk) throws X {
-        return environment.<T, X>with(getBindings().plusAll(newBindings), thunk);
+        return environment.<T, X>with(snapshot().plusAll(newBindings), thunk);
     }
 
     public <T, X extends Exception> T with(Object[] kv, Fun.RX<T, X> thunk) throws X {
-        return environment.<T, X>with(plusArray(getBindings(), kv), thunk);
+        return environment.<T, X>with(snapshot().plusArray(kv), thunk);
     }
 
     public <T, X extends Exception> T with(K k, V v, Fun.RX<T, X> thunk) throws X {
-        return environment.<T, X>with(getBindings().plus(k,v), thunk);
+        return environment.<T, X>with(snapshot().plus(k, v), thunk);
     }
 
     public <T> T with(Map<? extends K, ? extends V> newBindings, Fun.R<T> thunk) {
-        return environment.<T>with(getBindings().plusAll(newBindings), thunk);
+        return environment.<T>with(snapshot().plusAll(newBindings), thunk);
     }
 
     public <T> T with(Object[] kv, Fun.R<T> thunk) {
-        return environment.<T>with(plusArray(getBindings(), kv), thunk);
+        return environment.<T>with(snapshot().plusArray(kv), thunk);
     }
 
     public <T> T with(K k, V v, Fun.R<T> thunk) {
-        return environment.<T>with(getBindings().plus(k,v), thunk);
+        return environment.<T>with(snapshot().plus(k, v), thunk);
     }
 
     public void with(Map<? extends K, ? extends V> newBindings, Fun.VE thunk) throws Exception {
-        environment.with(getBindings().plusAll(newBindings), thunk);
+        environment.with(snapshot().plusAll(newBindings), thunk);
     }
 
     public void with(Object[] kv, Fun.VE thunk) throws Exception {
-        environment.with(plusArray(getBindings(), kv), thunk);
+        environment.with(snapshot().plusArray(kv), thunk);
     }
 
     public void with(K k, V v, Fun.VE thunk) throws Exception {
-        environment.with(getBindings().plus(k,v), thunk);
+        environment.with(snapshot().plus(k, v), thunk);
     }
 
     public <X extends Exception> void with(Map<? extends K, ? extends V> newBindings, Fun.VX<X> thunk) throws X {
-        environment.<X>with(getBindings().plusAll(newBindings), thunk);
+        environment.<X>with(snapshot().plusAll(newBindings), thunk);
     }
 
     public <X extends Exception> void with(Object[] kv, Fun.VX<X> thunk) throws X {
-        environment.<X>with(plusArray(getBindings(), kv), thunk);
+        environment.<X>with(snapshot().plusArray(kv), thunk);
     }
 
     public <X extends Exception> void with(K k, V v, Fun.VX<X> thunk) throws X {
-        environment.<X>with(getBindings().plus(k,v), thunk);
+        environment.<X>with(snapshot().plus(k, v), thunk);
     }
 
     public void with(Map<? extends K, ? extends V> newBindings, Runnable thunk) {
-        environment.with(getBindings().plusAll(newBindings), thunk);
+        environment.with(snapshot().plusAll(newBindings), thunk);
     }
 
     public void with(Object[] kv, Runnable thunk) {
-        environment.with(plusArray(getBindings(), kv), thunk);
+        environment.with(snapshot().plusArray(kv), thunk);
     }
 
     public void with(K k, V v, Runnable thunk) {
-        environment.with(getBindings().plus(k,v), thunk);
+        environment.with(snapshot().plus(k, v), thunk);
+    }
+
+    public <T> T withBindings(DynamicBindings<K, V> bindings, Callable<T> thunk) throws Exception {
+        return environment.<T>with(bindings, thunk);
+    }
+
+    public <T, X extends Exception> T withBindings(DynamicBindings<K, V> bindings, Fun.RX<T, X> thunk) throws X {
+        return environment.<T, X>with(bindings, thunk);
+    }
+
+    public <T> T withBindings(DynamicBindings<K, V> bindings, Fun.R<T> thunk) {
+        return environment.<T>with(bindings, thunk);
+    }
+
+    public <X extends Exception> void withBindings(DynamicBindings<K, V> bindings, Fun.VX<X> thunk) throws X {
+        environment.<X>with(bindings, thunk);
+    }
+
+    public void withBindings(DynamicBindings<K, V> bindings, Runnable thunk) {
+        environment.with(bindings, thunk);
     }
 }
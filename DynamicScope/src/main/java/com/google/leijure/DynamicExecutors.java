@@ -0,0 +1,216 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * Conveyance of the {@link DynamicScope} bindings to other threads.
+ * Each wrapper takes a snapshot of the bindings of the current thread when it is created,
+ * and reinstalls it around the wrapped task in whichever thread runs it,
+ * restoring that thread's own bindings afterwards.
+ * If Clojure is present, the Clojure thread binding frame is conveyed as well,
+ * as by {@code binding-conveyor-fn}.
+ */
+public class DynamicExecutors {
+    private DynamicExecutors() {}
+
+    /**
+     * The bindings of the thread that created it, to be reinstalled in another thread.
+     */
+    private static final class Conveyor {
+        private final DynamicBindings<Object,Object> bindings = DynamicScope.snapshot();
+        @Nullable private final Object clojureFrame =
+            DynamicBindings.VAR_CLASS != null ? ClojureVarFrames.captureFrame() : null;
+
+        <T, X extends Exception> T call(Fun.RX<T, X> thunk) throws X {
+            Object previous = clojureFrame != null ? ClojureVarFrames.installFrame(clojureFrame) : null;
+            try {
+                return DynamicScope.getEnvironment().<T, X>withBindings(bindings, thunk);
+            } finally {
+                if (clojureFrame != null) {
+                    ClojureVarFrames.installFrame(previous);
+                }
+            }
+        }
+
+        void run(Runnable thunk) {
+            Object previous = clojureFrame != null ? ClojureVarFrames.installFrame(clojureFrame) : null;
+            try {
+                DynamicScope.getEnvironment().withBindings(bindings, thunk);
+            } finally {
+                if (clojureFrame != null) {
+                    ClojureVarFrames.installFrame(previous);
+                }
+            }
+        }
+    }
+
+    public static Runnable wrap(final Runnable task) {
+        final Conveyor conveyor = new Conveyor();
+        return () -> conveyor.run(task);
+    }
+
+    public static <T> Callable<T> wrap(final Callable<T> task) {
+        final Conveyor conveyor = new Conveyor();
+        return () -> conveyor.<T, Exception>call(task::call);
+    }
+
+    public static <T> Supplier<T> wrapSupplier(final Supplier<T> supplier) {
+        final Conveyor conveyor = new Conveyor();
+        return () -> conveyor.call(supplier::get);
+    }
+
+    public static <A, R> Function<A, R> wrapFunction(final Function<A, R> function) {
+        final Conveyor conveyor = new Conveyor();
+        return a -> conveyor.call(() -> function.apply(a));
+    }
+
+    public static <A, B, R> BiFunction<A, B, R> wrapBiFunction(final BiFunction<A, B, R> function) {
+        final Conveyor conveyor = new Conveyor();
+        return (a, b) -> conveyor.call(() -> function.apply(a, b));
+    }
+
+    public static <A> Consumer<A> wrapConsumer(final Consumer<A> consumer) {
+        final Conveyor conveyor = new Conveyor();
+        return a -> conveyor.run(() -> consumer.accept(a));
+    }
+
+    /**
+     * Returns an Executor that conveys the bindings current at {@code execute} time.
+     */
+    public static Executor wrap(final Executor executor) {
+        return new Executor() { @Override public void execute(Runnable task) {
+            executor.execute(wrap(task));
+        }};
+    }
+
+    /**
+     * Returns an ExecutorService that conveys the bindings current at submission time.
+     */
+    public static ExecutorService wrap(ExecutorService executor) {
+        return new ConveyingExecutorService(executor);
+    }
+
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(wrapSupplier(supplier));
+    }
+
+    public static <T> CompletableFuture<T> supplyAsync(Supplier<T> supplier, Executor executor) {
+        return CompletableFuture.supplyAsync(wrapSupplier(supplier), executor);
+    }
+
+    public static CompletableFuture<Void> runAsync(Runnable task) {
+        return CompletableFuture.runAsync(wrap(task));
+    }
+
+    public static CompletableFuture<Void> runAsync(Runnable task, Executor executor) {
+        return CompletableFuture.runAsync(wrap(task), executor);
+    }
+
+    public static ForkJoinTask<?> adapt(Runnable task) {
+        return ForkJoinTask.adapt(wrap(task));
+    }
+
+    public static <T> ForkJoinTask<T> adapt(Runnable task, T result) {
+        return ForkJoinTask.adapt(wrap(task), result);
+    }
+
+    public static <T> ForkJoinTask<T> adapt(Callable<T> task) {
+        return ForkJoinTask.adapt(wrap(task));
+    }
+
+    private static <T> List<Callable<T>> wrapAll(Collection<? extends Callable<T>> tasks) {
+        List<Callable<T>> wrapped = new ArrayList<Callable<T>>(tasks.size());
+        for (Callable<T> task : tasks) {
+            wrapped.add(wrap(task));
+        }
+        return wrapped;
+    }
+
+    private static class ConveyingExecutorService implements ExecutorService {
+        private final ExecutorService executor;
+
+        ConveyingExecutorService(ExecutorService executor) {
+            this.executor = executor;
+        }
+
+        @Override public void execute(Runnable task) {
+            executor.execute(wrap(task));
+        }
+
+        @Override public Future<?> submit(Runnable task) {
+            return executor.submit(wrap(task));
+        }
+
+        @Override public <T> Future<T> submit(Runnable task, T result) {
+            return executor.submit(wrap(task), result);
+        }
+
+        @Override public <T> Future<T> submit(Callable<T> task) {
+            return executor.submit(wrap(task));
+        }
+
+        @Override public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks)
+            throws InterruptedException {
+            return executor.invokeAll(wrapAll(tasks));
+        }
+
+        @Override public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks,
+                                                       long timeout, TimeUnit unit)
+            throws InterruptedException {
+            return executor.invokeAll(wrapAll(tasks), timeout, unit);
+        }
+
+        @Override public <T> T invokeAny(Collection<? extends Callable<T>> tasks)
+            throws InterruptedException, ExecutionException {
+            return executor.invokeAny(wrapAll(tasks));
+        }
+
+        @Override public <T> T invokeAny(Collection<? extends Callable<T>> tasks,
+                                         long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+            return executor.invokeAny(wrapAll(tasks), timeout, unit);
+        }
+
+        @Override public void shutdown() {
+            executor.shutdown();
+        }
+
+        @Override public List<Runnable> shutdownNow() {
+            return executor.shutdownNow();
+        }
+
+        @Override public boolean isShutdown() {
+            return executor.isShutdown();
+        }
+
+        @Override public boolean isTerminated() {
+            return executor.isTerminated();
+        }
+
+        @Override public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException {
+            return executor.awaitTermination(timeout, unit);
+        }
+    }
+}
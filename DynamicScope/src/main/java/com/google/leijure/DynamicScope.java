@@ -6,6 +6,7 @@ package com.google.leijure;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.annotation.Nullable;
 
@@ -16,24 +17,212 @@ import org.pcollections.HashPMap;
  * and RunWith() and CallWith() to dynamically define new bindings in the current thread.
  */
 public class DynamicScope {
-    private static ThreadLocal<DynamicEnvironment<Object,Object>> environment =
-        new ThreadLocal<DynamicEnvironment<Object,Object>> () {
-        @Override protected DynamicEnvironment<Object,Object> initialValue () {
-            return new DynamicEnvironment<Object,Object> ();
-        }};
+    /**
+     * System property selecting the backend for the bindings:
+     * {@code scoped-value} to use a {@code java.lang.ScopedValue},
+     * {@code thread-local} to use a {@code ThreadLocal},
+     * or {@code auto} (the default) to use a ScopedValue if the JDK has it.
+     * The ThreadLocal is used as a fallback on JDKs without a usable ScopedValue.
+     */
+    public static final String BACKEND_PROPERTY = "leijure.dynamic.scope";
+
+    /**
+     * System property that, if {@code true}, makes new threads start with the bindings
+     * current in the thread that created them, rather than with no bindings.
+     * This implies the ThreadLocal backend, unless the ScopedValue backend is explicitly selected,
+     * in which case only the subtasks of a {@code StructuredTaskScope} inherit bindings.
+     */
+    public static final String INHERITABLE_PROPERTY = "leijure.dynamic.scope.inheritable";
+
+    private static final boolean inheritable = Boolean.getBoolean(INHERITABLE_PROPERTY);
+
+    private static final boolean scoped = useScopedValue();
+
+    /**
+     * The environment, shared by all threads.
+     * With the ThreadLocal backend, its DynamicVariable has a stack for each thread,
+     * allocated when the thread first binds anything:
+     * until then, the thread shares the immutable empty bindings.
+     */
+    private static final DynamicEnvironment<Object,Object> environment = scoped
+        ? new DynamicEnvironment<Object,Object> (
+            new ScopedDynamicVariable<DynamicBindings<Object,Object>> (DynamicBindings.<Object,Object>empty()))
+        : new DynamicEnvironment<Object,Object> (null, inheritable);
+
+    private static boolean useScopedValue() {
+        String backend = System.getProperty(BACKEND_PROPERTY, "auto");
+        return (backend.equals("scoped-value") || (backend.equals("auto") && !inheritable))
+            && ScopedDynamicVariable.isAvailable();
+    }
+
+    /**
+     * Returns true if new threads inherit the bindings of the thread that created them.
+     */
+    public static boolean isInheritable() {
+        return inheritable && !scoped;
+    }
+
+    /**
+     * Returns true if the bindings are held in a {@code java.lang.ScopedValue}.
+     */
+    public static boolean isScoped() {
+        return scoped;
+    }
 
     public static DynamicEnvironment<Object,Object> getEnvironment() {
-        return environment.get();
+        return environment;
     }
 
     public static HashPMap<Object,Object> getBindings() {
         return getEnvironment().getBindings();
     }
 
+    /**
+     * Returns the current bindings of this thread, to be reinstalled in another thread
+     * with {@code getEnvironment().withBindings(...)}, see {@link DynamicExecutors}.
+     */
+    public static DynamicBindings<Object,Object> snapshot() {
+        return getEnvironment().snapshot();
+    }
+
     public static Object get(Object key) {
         return getEnvironment().get(key);
     }
 
+    /**
+     * Returns the value bound to key, or its default value if unbound,
+     * by indexing the current bindings with the slot of the key.
+     */
+    @Nullable
+    public static <T> T get(Key<T> key) {
+        if (DynamicScopeMetrics.active) {
+            DynamicScopeMetrics.onRead(key);
+        }
+        return getEnvironment().snapshot().get(key);
+    }
+
+    /**
+     * A typed key for the dynamic environment.
+     * Each key registered gets its own dense integer slot, that {@link DynamicScope#get(Key)}
+     * uses to find its binding, faster than by hashing.
+     * Keys are compared by identity, and are bound like any other key,
+     * e.g. with {@code new DynamicScope.RunWith(key, value) { ... }}.
+     * Since slots are never reused, keys should be registered once, in static fields.
+     */
+    public static final class Key<T> {
+        private static final AtomicInteger nextSlot = new AtomicInteger();
+
+        final int slot;
+        private final String name;
+        @Nullable private final T defaultValue;
+
+        private Key(String name, @Nullable T defaultValue) {
+            this.slot = nextSlot.getAndIncrement();
+            this.name = name;
+            this.defaultValue = defaultValue;
+        }
+
+        /**
+         * Registers a new key, with a name for debugging
+         * and the value that {@link #get} returns when the key is unbound.
+         */
+        public static <T> Key<T> register(String name, @Nullable T defaultValue) {
+            return new Key<T>(name, defaultValue);
+        }
+
+        public static <T> Key<T> register(String name) {
+            return new Key<T>(name, null);
+        }
+
+        /**
+         * Returns the number of keys registered so far.
+         */
+        static int count() {
+            return nextSlot.get();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        @Nullable
+        public T getDefaultValue() {
+            return defaultValue;
+        }
+
+        @Nullable
+        public T get() {
+            return DynamicScope.get(this);
+        }
+
+        @Override
+        public String toString() {
+            return "#<DynamicScope.Key " + name + ">";
+        }
+    }
+
+    // Binding with lambdas: the thunk comes last, after one to four pairs of keys and values,
+    // or a map of them. Exceptions thrown by the thunk are inferred and passed through.
+    // Besides the new bindings and the thunk itself, these allocate nothing.
+
+    public static <T, X extends Exception> T call(Map<?,?> m, Fun.RX<T, X> thunk) throws X {
+        DynamicEnvironment<Object,Object> env = getEnvironment();
+        return env.<T, X>withBindings(env.snapshot().plusAll(m), thunk);
+    }
+
+    public static <T, X extends Exception> T call(Object k1, Object v1, Fun.RX<T, X> thunk) throws X {
+        DynamicEnvironment<Object,Object> env = getEnvironment();
+        return env.<T, X>withBindings(env.snapshot().plus(k1, v1), thunk);
+    }
+
+    public static <T, X extends Exception> T call(Object k1, Object v1, Object k2, Object v2,
+                                                  Fun.RX<T, X> thunk) throws X {
+        DynamicEnvironment<Object,Object> env = getEnvironment();
+        return env.<T, X>withBindings(env.snapshot().plus(k1, v1, k2, v2), thunk);
+    }
+
+    public static <T, X extends Exception> T call(Object k1, Object v1, Object k2, Object v2,
+                                                  Object k3, Object v3, Fun.RX<T, X> thunk) throws X {
+        DynamicEnvironment<Object,Object> env = getEnvironment();
+        return env.<T, X>withBindings(env.snapshot().plus(k1, v1, k2, v2, k3, v3), thunk);
+    }
+
+    public static <T, X extends Exception> T call(Object k1, Object v1, Object k2, Object v2,
+                                                  Object k3, Object v3, Object k4, Object v4,
+                                                  Fun.RX<T, X> thunk) throws X {
+        DynamicEnvironment<Object,Object> env = getEnvironment();
+        return env.<T, X>withBindings(env.snapshot().plus(k1, v1, k2, v2, k3, v3, k4, v4), thunk);
+    }
+
+    public static <X extends Exception> void run(Map<?,?> m, Fun.VX<X> thunk) throws X {
+        DynamicEnvironment<Object,Object> env = getEnvironment();
+        env.<X>withBindings(env.snapshot().plusAll(m), thunk);
+    }
+
+    public static <X extends Exception> void run(Object k1, Object v1, Fun.VX<X> thunk) throws X {
+        DynamicEnvironment<Object,Object> env = getEnvironment();
+        env.<X>withBindings(env.snapshot().plus(k1, v1), thunk);
+    }
+
+    public static <X extends Exception> void run(Object k1, Object v1, Object k2, Object v2,
+                                                 Fun.VX<X> thunk) throws X {
+        DynamicEnvironment<Object,Object> env = getEnvironment();
+        env.<X>withBindings(env.snapshot().plus(k1, v1, k2, v2), thunk);
+    }
+
+    public static <X extends Exception> void run(Object k1, Object v1, Object k2, Object v2,
+                                                 Object k3, Object v3, Fun.VX<X> thunk) throws X {
+        DynamicEnvironment<Object,Object> env = getEnvironment();
+        env.<X>withBindings(env.snapshot().plus(k1, v1, k2, v2, k3, v3), thunk);
+    }
+
+    public static <X extends Exception> void run(Object k1, Object v1, Object k2, Object v2,
+                                                 Object k3, Object v3, Object k4, Object v4,
+                                                 Fun.VX<X> thunk) throws X {
+        DynamicEnvironment<Object,Object> env = getEnvironment();
+        env.<X>withBindings(env.snapshot().plus(k1, v1, k2, v2, k3, v3, k4, v4), thunk);
+    }
+
     public static abstract class RunWith implements Fun.V {
 
         public RunWith (Map<?,?> m) {
@@ -0,0 +1,236 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Optional instrumentation of dynamic binding:
+ * counters of binds, unbinds, bindings added and reads, per-key reads, and maximum stack depth,
+ * available through {@link #snapshot} and JMX once {@link #setCountersEnabled enabled},
+ * and JFR events {@code com.google.leijure.DynamicBind} and {@code com.google.leijure.DynamicUnbind}
+ * emitted when {@link #setEmittingEvents enabled} and recorded by a JFR recording that enables them.
+ * When both are disabled, which is the default, each hook costs a single volatile read.
+ * Both can be enabled at startup with the system property {@code leijure.dynamic.metrics}
+ * set to {@code counters}, {@code events} or {@code all},
+ * which also registers the MXBean under {@link #OBJECT_NAME}.
+ * Stack depth is only tracked for the ThreadLocal backend.
+ */
+public final class DynamicScopeMetrics implements DynamicScopeMetricsMXBean {
+    public static final String METRICS_PROPERTY = "leijure.dynamic.metrics";
+    public static final String OBJECT_NAME = "com.google.leijure:type=DynamicScopeMetrics";
+
+    /**
+     * The maximum number of distinct keys whose reads are counted separately;
+     * reads of further keys are counted under {@link #OTHER_KEYS}.
+     */
+    public static final int MAX_KEYS = 1024;
+    public static final String OTHER_KEYS = "(other keys)";
+
+    private static final DynamicScopeMetrics INSTANCE = new DynamicScopeMetrics();
+
+    private static final Logger logger = Logger.getLogger(DynamicScopeMetrics.class.getName());
+
+    /** True if either counters or events are enabled: the only field read by disabled hooks. */
+    static volatile boolean active;
+    private static volatile boolean countersEnabled;
+    private static volatile boolean eventsEnabled;
+
+    private static final LongAdder binds = new LongAdder();
+    private static final LongAdder unbinds = new LongAdder();
+    private static final LongAdder bindings = new LongAdder();
+    private static final LongAdder reads = new LongAdder();
+    private static final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+    private static final ConcurrentHashMap<Object, LongAdder> keyReads =
+        new ConcurrentHashMap<Object, LongAdder>();
+
+    static {
+        String metrics = System.getProperty(METRICS_PROPERTY, "");
+        if (!metrics.isEmpty()) {
+            setCountersEnabled(metrics.equals("counters") || metrics.equals("all"));
+            setEmittingEvents(metrics.equals("events") || metrics.equals("all"));
+            try {
+                registerMBean();
+            } catch (JMException | RuntimeException ex) {
+                // Metrics are still available through snapshot(), only not through JMX.
+                logger.log(Level.WARNING, "Failed to register the MXBean " + OBJECT_NAME, ex);
+            }
+        }
+    }
+
+    private DynamicScopeMetrics() {}
+
+    /**
+     * Registers the MXBean with the platform MBean server, if not already registered.
+     */
+    public static synchronized ObjectName registerMBean() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        if (!server.isRegistered(name)) {
+            server.registerMBean(INSTANCE, name);
+        }
+        return name;
+    }
+
+    public static DynamicScopeMetricsMXBean getMXBean() {
+        return INSTANCE;
+    }
+
+    public static void setCountersEnabled(boolean enabled) {
+        countersEnabled = enabled;
+        active = countersEnabled || eventsEnabled;
+    }
+
+    public static boolean isCountersEnabled() {
+        return countersEnabled;
+    }
+
+    public static void setEmittingEvents(boolean enabled) {
+        eventsEnabled = enabled;
+        active = countersEnabled || eventsEnabled;
+    }
+
+    public static boolean isEmittingEvents() {
+        return eventsEnabled;
+    }
+
+    @Override public boolean isEnabled() { return countersEnabled; }
+    @Override public void setEnabled(boolean enabled) { setCountersEnabled(enabled); }
+    @Override public boolean isEventsEnabled() { return eventsEnabled; }
+    @Override public void setEventsEnabled(boolean enabled) { setEmittingEvents(enabled); }
+    @Override public long getBinds() { return binds.sum(); }
+    @Override public long getUnbinds() { return unbinds.sum(); }
+    @Override public long getBindings() { return bindings.sum(); }
+    @Override public long getReads() { return reads.sum(); }
+    @Override public int getMaxDepth() { return (int)maxDepth.get(); }
+    @Override public Map<String, Long> getKeyReads() { return snapshot().getKeyReads(); }
+    @Override public void reset() { resetCounters(); }
+
+    public static void resetCounters() {
+        binds.reset();
+        unbinds.reset();
+        bindings.reset();
+        reads.reset();
+        maxDepth.reset();
+        keyReads.clear();
+    }
+
+    // Hooks, only called when active is true.
+
+    static void onPush(int depth, Object value) {
+        if (countersEnabled) {
+            binds.increment();
+            maxDepth.accumulate(depth);
+        }
+        if (eventsEnabled) {
+            DynamicBindEvent event = new DynamicBindEvent();
+            if (event.shouldCommit()) {
+                event.depth = depth;
+                event.bindings = value instanceof DynamicBindings ? ((DynamicBindings<?, ?>)value).size() : -1;
+                event.commit();
+            }
+        }
+    }
+
+    static void onPop(int depth) {
+        if (countersEnabled) {
+            unbinds.increment();
+        }
+        if (eventsEnabled) {
+            DynamicUnbindEvent event = new DynamicUnbindEvent();
+            if (event.shouldCommit()) {
+                event.depth = depth;
+                event.commit();
+            }
+        }
+    }
+
+    static void onBindings(int n) {
+        if (countersEnabled) {
+            bindings.add(n);
+        }
+    }
+
+    static void onRead(Object key) {
+        if (countersEnabled) {
+            reads.increment();
+            LongAdder adder = keyReads.get(key);
+            if (adder == null) {
+                if (keyReads.size() >= MAX_KEYS) {
+                    key = OTHER_KEYS;
+                }
+                adder = keyReads.computeIfAbsent(key, k -> new LongAdder());
+            }
+            adder.increment();
+        }
+    }
+
+    /**
+     * Returns the current value of the counters.
+     */
+    public static Snapshot snapshot() {
+        Map<String, Long> keys = new HashMap<String, Long>();
+        for (Map.Entry<Object, LongAdder> e : keyReads.entrySet()) {
+            keys.merge(String.valueOf(e.getKey()), e.getValue().sum(), Long::sum);
+        }
+        return new Snapshot(binds.sum(), unbinds.sum(), bindings.sum(), reads.sum(),
+                            (int)maxDepth.get(), keys);
+    }
+
+    /**
+     * The value of the counters at some point in time.
+     * Counters are updated concurrently with the snapshot,
+     * so they may be slightly inconsistent with each other.
+     */
+    public static final class Snapshot {
+        private final long binds;
+        private final long unbinds;
+        private final long bindings;
+        private final long reads;
+        private final int maxDepth;
+        private final Map<String, Long> keyReads;
+
+        Snapshot(long binds, long unbinds, long bindings, long reads, int maxDepth,
+                 Map<String, Long> keyReads) {
+            this.binds = binds;
+            this.unbinds = unbinds;
+            this.bindings = bindings;
+            this.reads = reads;
+            this.maxDepth = maxDepth;
+            this.keyReads = keyReads;
+        }
+
+        /** Number of bindings pushed on dynamic variables. */
+        public long getBinds() { return binds; }
+        /** Number of bindings popped from dynamic variables. */
+        public long getUnbinds() { return unbinds; }
+        /** Number of keys bound in dynamic environments, over all binds. */
+        public long getBindings() { return bindings; }
+        /** Number of keys read from dynamic environments. */
+        public long getReads() { return reads; }
+        /** Deepest binding stack seen in any thread. */
+        public int getMaxDepth() { return maxDepth; }
+        /** Number of reads of each key, by the key's string representation. */
+        public Map<String, Long> getKeyReads() { return keyReads; }
+
+        @Override
+        public String toString() {
+            return "DynamicScopeMetrics.Snapshot{binds=" + binds + ", unbinds=" + unbinds
+                + ", bindings=" + bindings + ", reads=" + reads + ", maxDepth=" + maxDepth
+                + ", keyReads=" + keyReads + "}";
+        }
+    }
+}
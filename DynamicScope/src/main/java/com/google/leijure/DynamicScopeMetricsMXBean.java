@@ -0,0 +1,24 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link DynamicScopeMetrics}.
+ */
+public interface DynamicScopeMetricsMXBean {
+    public boolean isEnabled();
+    public void setEnabled(boolean enabled);
+    public boolean isEventsEnabled();
+    public void setEventsEnabled(boolean enabled);
+    public long getBinds();
+    public long getUnbinds();
+    public long getBindings();
+    public long getReads();
+    public int getMaxDepth();
+    public Map<String, Long> getKeyReads();
+    public void reset();
+}
@@ -0,0 +1,24 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for popping a binding from a {@link DynamicVariable}.
+ */
+@Name("com.google.leijure.DynamicUnbind")
+@Label("Dynamic Unbind")
+@Category({"Leijure", "DynamicScope"})
+@Description("A DynamicVariable was unbound")
+final class DynamicUnbindEvent extends Event {
+    @Label("Depth")
+    @Description("Depth of the binding stack after the unbind")
+    int depth;
+}
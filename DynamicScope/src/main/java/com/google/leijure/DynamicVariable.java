@@ -4,37 +4,145 @@
 // Original author: Francois-Rene Rideau <tunes@google.com>
 package com.google.leijure;
 
+import java.util.Arrays;
 import java.util.concurrent.Callable;
-import java.util.Stack;
 
 import javax.annotation.Nullable;
 
 
 /**
- * Trivial implementation of a DynamicVariable
+ * Trivial implementation of a DynamicVariable.
+ * Each thread has its own private, unsynchronized stack of bindings,
+ * allocated the first time it binds the variable;
+ * threads without bindings see the initial value.
+ * An inheritable variable instead starts each new thread with the value
+ * that the variable had in the thread that created it.
+ * {@link OfInt}, {@link OfLong} and {@link OfDouble} hold primitive values without boxing.
  */
 public class DynamicVariable<A> {
-    private final Stack<A> stack = new Stack<A> ();
+    private static final int INITIAL_CAPACITY = 8;
+
+    /**
+     * Unsynchronized stack of bindings, only ever accessed from its owning thread.
+     */
+    private static final class Bindings {
+        Object[] values = new Object[INITIAL_CAPACITY];
+        int size = 0;
+
+        void push(@Nullable Object a) {
+            if (size == values.length) {
+                Object[] newValues = new Object[size * 2];
+                System.arraycopy(values, 0, newValues, 0, size);
+                values = newValues;
+            }
+            values[size++] = a;
+        }
+
+        /**
+         * Pops the top binding, and shrinks the stack by half when it is a quarter full,
+         * so that it doesn't keep holding on to memory after deep recursion unwinds.
+         */
+        void pop() {
+            values[--size] = null;
+            if (size <= values.length / 4 && values.length > INITIAL_CAPACITY) {
+                Object[] newValues = new Object[values.length / 2];
+                System.arraycopy(values, 0, newValues, 0, size);
+                values = newValues;
+            }
+        }
+
+        int capacity() {
+            return values.length;
+        }
+    }
+
+    /**
+     * Starts the stack of a new thread with the current value in the parent thread, if bound.
+     * The value itself is shared, so this is O(1), and safe if the value is immutable.
+     */
+    private static final class InheritableBindings extends InheritableThreadLocal<Bindings> {
+        @Override
+        @Nullable
+        protected Bindings childValue(@Nullable Bindings parent) {
+            if (parent == null || parent.size == 0) {
+                return null;
+            }
+            Bindings child = new Bindings();
+            child.push(parent.values[parent.size - 1]);
+            return child;
+        }
+    }
+
+    @Nullable
+    private final A initialValue;
+
+    private final ThreadLocal<Bindings> bindings;
+
+    /**
+     * Creates a DynamicVariable with the given initial value;
+     * if inheritable, new threads start with the value current in their parent thread.
+     */
+    public DynamicVariable(@Nullable final A initialValue, boolean inheritable) {
+        this.initialValue = initialValue;
+        this.bindings = inheritable ? new InheritableBindings() : new ThreadLocal<Bindings> ();
+    }
 
     public DynamicVariable(@Nullable final A initialValue) {
-        stack.push(initialValue);
+        this(initialValue, false);
     }
 
     public DynamicVariable() {
         this(null);
     }
 
+    /**
+     * Returns the capacity of the binding stack of the current thread, or 0 if not allocated.
+     */
+    int getCapacity() {
+        Bindings b = bindings.get();
+        return b == null ? 0 : b.capacity();
+    }
+
+    @Nullable
+    public A getInitialValue() {
+        return initialValue;
+    }
+
     @Nullable
+    @SuppressWarnings("unchecked")
     public A get() {
-        return stack.peek();
+        Bindings b = bindings.get();
+        if (b == null || b.size == 0) {
+            return initialValue;
+        }
+        return (A)b.values[b.size - 1];
     }
 
     private void push(@Nullable A a) {
-        stack.push(a);
+        Bindings b = bindings.get();
+        if (b == null) {
+            b = new Bindings();
+            bindings.set(b);
+        }
+        if (DynamicBindings.hasVars) {
+            DynamicBindings.pushVars(b.size == 0 ? initialValue : b.values[b.size - 1], a);
+        }
+        b.push(a);
+        if (DynamicScopeMetrics.active) {
+            DynamicScopeMetrics.onPush(b.size, a);
+        }
     }
 
     private void pop() {
-        stack.pop();
+        Bindings b = bindings.get();
+        Object popped = b.values[b.size - 1];
+        b.pop();
+        if (DynamicBindings.hasVars) {
+            DynamicBindings.popVars(popped, b.size == 0 ? initialValue : b.values[b.size - 1]);
+        }
+        if (DynamicScopeMetrics.active) {
+            DynamicScopeMetrics.onPop(b.size);
+        }
     }
 
     @Nullable
@@ -99,4 +207,302 @@ public class DynamicVariable<A> {
             pop();
         }
     }
+
+    /**
+     * The stack of bindings of a primitive variable, in an array of the subclass,
+     * growing and shrinking as for the stack of a DynamicVariable.
+     */
+    abstract static class PrimitiveBindings {
+        int size = 0;
+        int capacity = INITIAL_CAPACITY;
+
+        /** Copies the array of values into one of the given capacity. */
+        abstract void resize(int newCapacity);
+
+        /** Makes room for one more value, at index size. */
+        final void reserve() {
+            if (size == capacity) {
+                capacity = size * 2;
+                resize(capacity);
+            }
+        }
+
+        final void pop() {
+            size--;
+            if (size <= capacity / 4 && capacity > INITIAL_CAPACITY) {
+                capacity /= 2;
+                resize(capacity);
+            }
+        }
+    }
+
+    /**
+     * The binding logic shared by the primitive variables, that only differ in the type
+     * of their values, hence of their array, and of the functions that they take.
+     */
+    abstract static class Primitive<B extends PrimitiveBindings> {
+        final ThreadLocal<B> bindings = new ThreadLocal<B> ();
+
+        abstract B newBindings();
+
+        /** Returns the stack of the current thread, with room for one more value. */
+        final B reserve() {
+            B b = bindings.get();
+            if (b == null) {
+                b = newBindings();
+                bindings.set(b);
+            }
+            b.reserve();
+            return b;
+        }
+
+        /** To call once the value is pushed. */
+        final void pushed(B b) {
+            if (DynamicScopeMetrics.active) {
+                DynamicScopeMetrics.onPush(b.size, null);
+            }
+        }
+
+        final void pop() {
+            B b = bindings.get();
+            b.pop();
+            if (DynamicScopeMetrics.active) {
+                DynamicScopeMetrics.onPop(b.size);
+            }
+        }
+    }
+
+    /**
+     * A DynamicVariable holding an unboxed int.
+     */
+    public static final class OfInt extends Primitive<OfInt.Bindings> {
+        static final class Bindings extends PrimitiveBindings {
+            int[] values = new int[INITIAL_CAPACITY];
+
+            @Override
+            void resize(int newCapacity) {
+                values = Arrays.copyOf(values, newCapacity);
+            }
+        }
+
+        private final int initialValue;
+
+        public OfInt(int initialValue) {
+            this.initialValue = initialValue;
+        }
+
+        public OfInt() {
+            this(0);
+        }
+
+        public int getInitialValue() {
+            return initialValue;
+        }
+
+        public int get() {
+            Bindings b = bindings.get();
+            if (b == null || b.size == 0) {
+                return initialValue;
+            }
+            return b.values[b.size - 1];
+        }
+
+        @Override
+        Bindings newBindings() {
+            return new Bindings();
+        }
+
+        private void push(int a) {
+            Bindings b = reserve();
+            b.values[b.size++] = a;
+            pushed(b);
+        }
+
+        public int with (int a, Fun.IntR thunk) {
+            push(a);
+            try {
+                return thunk.call();
+            }
+            finally {
+                pop();
+            }
+        }
+
+        @Nullable
+        public <R, X extends Exception> R call (int a, Fun.RX<R, X> thunk) throws X {
+            push(a);
+            try {
+                return thunk.call();
+            }
+            finally {
+                pop();
+            }
+        }
+
+        public <X extends Exception> void run (int a, Fun.VX<X> thunk) throws X {
+            push(a);
+            try {
+                thunk.run();
+            }
+            finally {
+                pop();
+            }
+        }
+    }
+
+    /**
+     * A DynamicVariable holding an unboxed long.
+     */
+    public static final class OfLong extends Primitive<OfLong.Bindings> {
+        static final class Bindings extends PrimitiveBindings {
+            long[] values = new long[INITIAL_CAPACITY];
+
+            @Override
+            void resize(int newCapacity) {
+                values = Arrays.copyOf(values, newCapacity);
+            }
+        }
+
+        private final long initialValue;
+
+        public OfLong(long initialValue) {
+            this.initialValue = initialValue;
+        }
+
+        public OfLong() {
+            this(0);
+        }
+
+        public long getInitialValue() {
+            return initialValue;
+        }
+
+        public long get() {
+            Bindings b = bindings.get();
+            if (b == null || b.size == 0) {
+                return initialValue;
+            }
+            return b.values[b.size - 1];
+        }
+
+        @Override
+        Bindings newBindings() {
+            return new Bindings();
+        }
+
+        private void push(long a) {
+            Bindings b = reserve();
+            b.values[b.size++] = a;
+            pushed(b);
+        }
+
+        public long with (long a, Fun.LongR thunk) {
+            push(a);
+            try {
+                return thunk.call();
+            }
+            finally {
+                pop();
+            }
+        }
+
+        @Nullable
+        public <R, X extends Exception> R call (long a, Fun.RX<R, X> thunk) throws X {
+            push(a);
+            try {
+                return thunk.call();
+            }
+            finally {
+                pop();
+            }
+        }
+
+        public <X extends Exception> void run (long a, Fun.VX<X> thunk) throws X {
+            push(a);
+            try {
+                thunk.run();
+            }
+            finally {
+                pop();
+            }
+        }
+    }
+
+    /**
+     * A DynamicVariable holding an unboxed double.
+     */
+    public static final class OfDouble extends Primitive<OfDouble.Bindings> {
+        static final class Bindings extends PrimitiveBindings {
+            double[] values = new double[INITIAL_CAPACITY];
+
+            @Override
+            void resize(int newCapacity) {
+                values = Arrays.copyOf(values, newCapacity);
+            }
+        }
+
+        private final double initialValue;
+
+        public OfDouble(double initialValue) {
+            this.initialValue = initialValue;
+        }
+
+        public OfDouble() {
+            this(0);
+        }
+
+        public double getInitialValue() {
+            return initialValue;
+        }
+
+        public double get() {
+            Bindings b = bindings.get();
+            if (b == null || b.size == 0) {
+                return initialValue;
+            }
+            return b.values[b.size - 1];
+        }
+
+        @Override
+        Bindings newBindings() {
+            return new Bindings();
+        }
+
+        private void push(double a) {
+            Bindings b = reserve();
+            b.values[b.size++] = a;
+            pushed(b);
+        }
+
+        public double with (double a, Fun.DoubleR thunk) {
+            push(a);
+            try {
+                return thunk.call();
+            }
+            finally {
+                pop();
+            }
+        }
+
+        @Nullable
+        public <R, X extends Exception> R call (double a, Fun.RX<R, X> thunk) throws X {
+            push(a);
+            try {
+                return thunk.call();
+            }
+            finally {
+                pop();
+            }
+        }
+
+        public <X extends Exception> void run (double a, Fun.VX<X> thunk) throws X {
+            push(a);
+            try {
+                thunk.run();
+            }
+            finally {
+                pop();
+            }
+        }
+    }
 }
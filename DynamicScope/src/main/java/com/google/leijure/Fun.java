@@ -11,6 +11,7 @@ import javax.annotation.Nullable;
 /**
  * Functions returning zero or one (R)esult, taking zero or one (A)rgument,
  * and throwing no exception, one (X)ception or all (E)exceptions.
+ * The Int, Long and Double variants return a primitive instead, without boxing.
  */
 public class Fun {
     public interface RAE<R, A> {
@@ -49,4 +50,13 @@ public class Fun {
     public interface V extends Runnable {
         public void run();
     }
+    public interface IntR {
+        public int call();
+    }
+    public interface LongR {
+        public long call();
+    }
+    public interface DoubleR {
+        public double call();
+    }
 }
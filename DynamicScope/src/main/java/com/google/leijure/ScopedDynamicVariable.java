@@ -0,0 +1,216 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.concurrent.Callable;
+
+import javax.annotation.Nullable;
+
+/**
+ * A DynamicVariable backed by a {@code java.lang.ScopedValue}, on JDKs that have it.
+ * There is no per-thread state at all, and bindings are inherited
+ * by the subtasks of a {@code StructuredTaskScope}.
+ * The ScopedValue API is accessed through method handles,
+ * so this class compiles and loads on older JDKs, where {@link #isAvailable} returns false.
+ */
+public class ScopedDynamicVariable<A> extends DynamicVariable<A> {
+    @Nullable private static final MethodHandle newInstance;
+    @Nullable private static final MethodHandle where;
+    @Nullable private static final MethodHandle run;
+    @Nullable private static final MethodHandle orElse;
+
+    static {
+        MethodHandle n = null, w = null, r = null, o = null;
+        try {
+            Class<?> scopedValueClass = Class.forName("java.lang.ScopedValue");
+            Class<?> carrierClass = Class.forName("java.lang.ScopedValue$Carrier");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            n = lookup.findStatic(scopedValueClass, "newInstance",
+                                  MethodType.methodType(scopedValueClass));
+            w = lookup.findStatic(scopedValueClass, "where",
+                                  MethodType.methodType(carrierClass, scopedValueClass, Object.class));
+            r = lookup.findVirtual(carrierClass, "run",
+                                   MethodType.methodType(void.class, Runnable.class));
+            o = lookup.findVirtual(scopedValueClass, "orElse",
+                                   MethodType.methodType(Object.class, Object.class));
+            // Preview versions of the API may refuse to run: check that a binding actually works.
+            r.invoke(w.invoke(n.invoke(), (Object)null), new Runnable() { @Override public void run() {}});
+        } catch (Throwable t) {
+            n = w = r = o = null;
+        }
+        newInstance = n;
+        where = w;
+        run = r;
+        orElse = o;
+    }
+
+    /**
+     * Returns true if this JDK provides a usable {@code java.lang.ScopedValue}.
+     */
+    public static boolean isAvailable() {
+        return newInstance != null;
+    }
+
+    /**
+     * Passed to {@code orElse} for an unbound variable, then mapped back to the initial value,
+     * as the final ScopedValue API refuses a null default, which the initial value may be.
+     */
+    private static final Object UNBOUND = new Object();
+
+    private final Object scopedValue;
+
+    public ScopedDynamicVariable(@Nullable final A initialValue) {
+        super(initialValue);
+        if (!isAvailable()) {
+            throw new UnsupportedOperationException("java.lang.ScopedValue is not available");
+        }
+        try {
+            scopedValue = newInstance.invoke();
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    public ScopedDynamicVariable() {
+        this(null);
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public A get() {
+        try {
+            Object v = orElse.invoke(scopedValue, UNBOUND);
+            return v == UNBOUND ? getInitialValue() : (A)v;
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <X extends Exception> X rethrow(Exception ex) throws X {
+        throw (X)ex;
+    }
+
+    /**
+     * Calls the thunk with the variable bound to a; any exception is rethrown as is.
+     */
+    @Nullable
+    private <R> R call(@Nullable A a, final Callable<R> thunk) throws Exception {
+        final Object[] result = new Object[1];
+        final Exception[] failure = new Exception[1];
+        if (DynamicScopeMetrics.active) {
+            DynamicScopeMetrics.onPush(-1, a);
+        }
+        final Object previous = DynamicBindings.hasVars ? get() : null;
+        if (previous != null) {
+            DynamicBindings.pushVars(previous, a);
+        }
+        try {
+            run.invoke(where.invoke(scopedValue, a), new Runnable() { @Override public void run() {
+                try {
+                    result[0] = thunk.call();
+                } catch (Exception ex) {
+                    failure[0] = ex;
+                }
+            }});
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        } finally {
+            if (previous != null) {
+                DynamicBindings.popVars(a, previous);
+            }
+            if (DynamicScopeMetrics.active) {
+                DynamicScopeMetrics.onPop(-1);
+            }
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        @SuppressWarnings("unchecked") R r = (R)result[0];
+        return r;
+    }
+
+    @Nullable
+    @Override
+    public <R, X extends Exception> R with (@Nullable A a, final Fun.RX<R, X> thunk) throws X {
+        try {
+            return call(a, new Callable<R>() { @Override public R call() throws X {
+                return thunk.call();
+            }});
+        } catch (Exception ex) {
+            throw ScopedDynamicVariable.<X>rethrow(ex);
+        }
+    }
+
+    @Nullable
+    @Override
+    public <R> R with (@Nullable A a, Callable<R> thunk) throws Exception {
+        return call(a, thunk);
+    }
+
+    @Nullable
+    @Override
+    public <R> R with (@Nullable A a, Fun.R<R> thunk) {
+        try {
+            return call(a, thunk);
+        } catch (Exception ex) {
+            throw ScopedDynamicVariable.<RuntimeException>rethrow(ex);
+        }
+    }
+
+    @Override
+    public void with (@Nullable A a, final Fun.VE thunk) throws Exception {
+        call(a, new Callable<Object>() { @Override public Object call() throws Exception {
+            thunk.run();
+            return null;
+        }});
+    }
+
+    @Override
+    public <X extends Exception> void with (@Nullable A a, final Fun.VX<X> thunk) throws X {
+        try {
+            call(a, new Callable<Object>() { @Override public Object call() throws X {
+                thunk.run();
+                return null;
+            }});
+        } catch (Exception ex) {
+            throw ScopedDynamicVariable.<X>rethrow(ex);
+        }
+    }
+
+    @Override
+    public void with (@Nullable A a, final Runnable thunk) {
+        if (DynamicScopeMetrics.active) {
+            DynamicScopeMetrics.onPush(-1, a);
+        }
+        final Object previous = DynamicBindings.hasVars ? get() : null;
+        if (previous != null) {
+            DynamicBindings.pushVars(previous, a);
+        }
+        try {
+            run.invoke(where.invoke(scopedValue, a), thunk);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        } finally {
+            if (previous != null) {
+                DynamicBindings.popVars(a, previous);
+            }
+            if (DynamicScopeMetrics.active) {
+                DynamicScopeMetrics.onPop(-1);
+            }
+        }
+    }
+}
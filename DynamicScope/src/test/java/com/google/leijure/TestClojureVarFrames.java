@@ -0,0 +1,88 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import com.google.leijure.DynamicExecutors;
+import com.google.leijure.DynamicScope;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import clojure.lang.Namespace;
+import clojure.lang.RT;
+import clojure.lang.Symbol;
+import clojure.lang.Var;
+
+import junit.framework.TestCase;
+
+/**
+ * Testing Clojure dynamic Vars as keys of the dynamic environment
+ */
+public class TestClojureVarFrames extends TestCase {
+
+    private static final Var X = Var.intern(Namespace.findOrCreate(Symbol.intern("leijure.test")),
+                                            Symbol.intern("*x*"), "root").setDynamic();
+
+    public void testJavaBindingsSeenByClojure() throws Exception {
+        assertEquals("root", DynamicScope.get(X));
+        DynamicScope.run(X, "java", "a", "b", () -> {
+            assertEquals("java", X.deref());
+            assertEquals("java", DynamicScope.get(X));
+            DynamicScope.run("c", "d", () -> assertEquals("java", X.deref()));
+            DynamicScope.run(X, "inner", () -> assertEquals("inner", X.deref()));
+            assertEquals("java", X.deref());
+        });
+        assertEquals("root", X.deref());
+    }
+
+    private static final Var Z = Var.intern(Namespace.findOrCreate(Symbol.intern("leijure.test")),
+                                            Symbol.intern("*z*"), "root").setDynamic();
+
+    public void testClojureBindingsInsideJava() throws Exception {
+        DynamicScope.run(X, "java", () -> {
+            Var.pushThreadBindings(RT.map(X, "clojure"));
+            try {
+                DynamicScope.run(Z, "z", () -> {
+                    assertEquals("clojure", X.deref());
+                    assertEquals("clojure", DynamicScope.get(X));
+                    assertEquals("z", Z.deref());
+                });
+                assertEquals("clojure", X.deref());
+                assertEquals("root", Z.deref());
+            } finally {
+                Var.popThreadBindings();
+            }
+            assertEquals("java", X.deref());
+        });
+        assertEquals("root", X.deref());
+    }
+
+    public void testClojureBindingsSeenByJava() {
+        Var.pushThreadBindings(RT.map(X, "clojure"));
+        try {
+            assertEquals("clojure", DynamicScope.get(X));
+        } finally {
+            Var.popThreadBindings();
+        }
+    }
+
+    public void testConveyance() throws Exception {
+        final ExecutorService executor = DynamicExecutors.wrap(Executors.newSingleThreadExecutor());
+        try {
+            DynamicScope.<Exception>run(X, "conveyed", () -> {
+                assertEquals("conveyed", executor.submit(() -> X.deref()).get());
+            });
+            Var.pushThreadBindings(RT.map(X, "by clojure"));
+            try {
+                assertEquals("by clojure", executor.submit(() -> X.deref()).get());
+            } finally {
+                Var.popThreadBindings();
+            }
+            assertEquals("root", executor.submit(() -> X.deref()).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
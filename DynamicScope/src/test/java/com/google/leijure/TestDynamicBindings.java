@@ -0,0 +1,65 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import com.google.leijure.DynamicBindings;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Testing the small and large representations of bindings
+ */
+public class TestDynamicBindings extends TestCase {
+
+    public void testSmallBindings() {
+        DynamicBindings<Object, Object> b = DynamicBindings.empty();
+        b = b.plusArray("a", 1, "b", 2, "a", 3);
+        assertEquals(2, b.size());
+        assertEquals(3, b.get("a"));
+        assertEquals(2, b.get("b"));
+        assertEquals(null, b.get("c"));
+        Map<Object, Object> m = new HashMap<Object, Object>();
+        m.put("c", 4);
+        m.put("b", 5);
+        DynamicBindings<Object, Object> b2 = b.plusArray("d", 6, m);
+        assertEquals(4, b2.size());
+        assertEquals(5, b2.get("b"));
+        assertEquals(2, b.get("b"));
+        assertEquals(b2.toPMap().size(), 4);
+        assertEquals(4, b2.toPMap().get("c"));
+    }
+
+    public void testLargeBindings() {
+        DynamicBindings<Object, Object> b = DynamicBindings.empty();
+        for (int i = 0; i < 3 * DynamicBindings.SMALL_SIZE; i++) {
+            b = b.plus(i, "v" + i);
+            assertEquals(i + 1, b.size());
+        }
+        for (int i = 0; i < 3 * DynamicBindings.SMALL_SIZE; i++) {
+            assertEquals("v" + i, b.get(i));
+        }
+        assertEquals("w", b.plus(0, "w").get(0));
+        assertEquals(b.size(), DynamicBindings.of(b.toPMap()).size());
+    }
+
+    private static final DynamicScope.Key<String> NAME = DynamicScope.Key.register("name", "default");
+
+    public void testNullKeyBinding() {
+        DynamicBindings<Object, Object> b = DynamicBindings.empty();
+        assertEquals("default", b.get(NAME));
+        b = b.plus(NAME, null);
+        assertEquals(null, b.get(NAME));
+        assertEquals(null, b.get((Object)NAME));
+        assertEquals("x", b.plus(NAME, "x").get(NAME));
+        for (int i = 0; i < 2 * DynamicBindings.SMALL_SIZE; i++) {
+            b = b.plus(i, i);
+        }
+        assertEquals(null, b.get(NAME));
+        assertEquals(null, DynamicBindings.of(b.toPMap()).get(NAME));
+    }
+}
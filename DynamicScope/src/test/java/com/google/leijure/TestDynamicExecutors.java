@@ -0,0 +1,55 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import com.google.leijure.DynamicExecutors;
+import com.google.leijure.DynamicScope;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+
+import junit.framework.TestCase;
+
+/**
+ * Testing the conveyance of dynamic bindings to other threads
+ */
+public class TestDynamicExecutors extends TestCase {
+
+    private static final Callable<Object> GET_A = new Callable<Object>() {
+        @Override public Object call() { return DynamicScope.get("a"); }};
+
+    public void testExecutorService() throws Exception {
+        final ExecutorService executor = DynamicExecutors.wrap(Executors.newSingleThreadExecutor());
+        try {
+            new DynamicScope.RunWithE("a", "b") {
+                public void run () throws Exception {
+                    assertEquals("b", executor.submit(GET_A).get());
+                }};
+            assertEquals(null, executor.submit(GET_A).get());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public void testCompletableFuture() throws Exception {
+        new DynamicScope.RunWithE("a", "c") {
+            public void run () throws Exception {
+                CompletableFuture<Object> f = DynamicExecutors.supplyAsync(
+                    new java.util.function.Supplier<Object>() {
+                        @Override public Object get() { return DynamicScope.get("a"); }});
+                assertEquals("c", f.get());
+            }};
+    }
+
+    public void testForkJoinTask() throws Exception {
+        new DynamicScope.RunWithE("a", "d") {
+            public void run () throws Exception {
+                assertEquals("d", ForkJoinPool.commonPool().invoke(DynamicExecutors.adapt(GET_A)));
+            }};
+    }
+}
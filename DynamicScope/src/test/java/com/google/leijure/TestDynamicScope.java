@@ -29,4 +29,39 @@ public class TestDynamicScope extends TestCase {
                     }};
             }};
     }
+
+    private static final DynamicScope.Key<Integer> DEPTH = DynamicScope.Key.register("depth", 0);
+
+    public void testKeys() {
+        assertEquals((Integer)0, DEPTH.get());
+        new DynamicScope.RunWith(DEPTH, 1) {
+            public void run () {
+                assertEquals((Integer)1, DEPTH.get());
+                assertEquals(1, DynamicScope.get((Object)DEPTH));
+                final DynamicScope.Key<String> late = DynamicScope.Key.register("late");
+                assertEquals(null, late.get());
+                new DynamicScope.RunWith(late, "x", "a", "b") {
+                    public void run () {
+                        assertEquals("x", late.get());
+                        assertEquals((Integer)1, DEPTH.get());
+                    }};
+            }};
+        assertEquals((Integer)0, DEPTH.get());
+    }
+
+    public void testLambdas() throws Exception {
+        assertEquals("bd", DynamicScope.call("a", "b", "c", "d",
+            () -> (String)DynamicScope.get("a") + DynamicScope.get("c")));
+        DynamicScope.run("a", 1, "b", 2, "c", 3, "d", 4, () -> {
+            assertEquals(4, DynamicScope.get("d"));
+            assertEquals((Integer)10, DynamicScope.call("d", 7,
+                () -> (Integer)DynamicScope.get("a") + (Integer)DynamicScope.get("d") + 2));
+        });
+        try {
+            DynamicScope.run("a", "b", () -> { throw new java.io.IOException("oops"); });
+            fail();
+        } catch (java.io.IOException ex) {
+            assertEquals(null, DynamicScope.get("a"));
+        }
+    }
 }
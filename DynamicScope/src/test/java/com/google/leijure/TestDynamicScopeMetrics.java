@@ -0,0 +1,88 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import com.google.leijure.DynamicScopeMetrics;
+
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.management.ObjectName;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import junit.framework.TestCase;
+
+/**
+ * Testing the instrumentation of dynamic binding
+ */
+public class TestDynamicScopeMetrics extends TestCase {
+
+    @Override
+    protected void tearDown() {
+        DynamicScopeMetrics.setCountersEnabled(false);
+        DynamicScopeMetrics.setEmittingEvents(false);
+        DynamicScopeMetrics.resetCounters();
+    }
+
+    public void testCounters() throws Exception {
+        DynamicScopeMetrics.resetCounters();
+        DynamicScopeMetrics.setCountersEnabled(true);
+        DynamicScope.run("a", 1, "b", 2, () -> {
+            DynamicScope.run("a", 3, () -> {
+                DynamicScope.get("a");
+                DynamicScope.get("a");
+                DynamicScope.get("b");
+            });
+        });
+        DynamicScopeMetrics.setCountersEnabled(false);
+        DynamicScope.get("a");
+        DynamicScopeMetrics.Snapshot s = DynamicScopeMetrics.snapshot();
+        assertEquals(2, s.getBinds());
+        assertEquals(2, s.getUnbinds());
+        assertEquals(3, s.getBindings());
+        assertEquals(3, s.getReads());
+        assertEquals((Long)2L, s.getKeyReads().get("a"));
+        if (!DynamicScope.isScoped()) {
+            assertEquals(2, s.getMaxDepth());
+        }
+        ObjectName name = DynamicScopeMetrics.registerMBean();
+        assertEquals(3L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Reads"));
+    }
+
+    public void testEvents() throws Exception {
+        Path file = Files.createTempFile("dynamic-scope", ".jfr");
+        try {
+            try (Recording recording = new Recording()) {
+                recording.enable("com.google.leijure.DynamicBind");
+                recording.enable("com.google.leijure.DynamicUnbind");
+                recording.start();
+                DynamicScopeMetrics.setEmittingEvents(true);
+                DynamicScope.run("a", 1, "b", 2, () -> {});
+                DynamicScopeMetrics.setEmittingEvents(false);
+                recording.stop();
+                recording.dump(file);
+            }
+            int binds = 0;
+            int unbinds = 0;
+            for (RecordedEvent event : RecordingFile.readAllEvents(file)) {
+                String name = event.getEventType().getName();
+                if (name.equals("com.google.leijure.DynamicBind")) {
+                    binds++;
+                    assertEquals(2, event.getInt("bindings"));
+                } else if (name.equals("com.google.leijure.DynamicUnbind")) {
+                    unbinds++;
+                }
+            }
+            assertEquals(1, binds);
+            assertEquals(1, unbinds);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -8,6 +8,8 @@ import com.google.leijure.DynamicVariable;
 import com.google.leijure.DynamicScope;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.TestCase;
 
@@ -27,4 +29,83 @@ public class TestDynamicVariable extends TestCase {
             assertEquals(var.get(), (Integer)5);
         }});
     }
+
+    public void testThreadsHaveSeparateBindings() throws Exception {
+        final DynamicVariable<String> var = new DynamicVariable<String>("global");
+        final CountDownLatch bound = new CountDownLatch(1);
+        final CountDownLatch checked = new CountDownLatch(1);
+        final AtomicReference<String> seen = new AtomicReference<String>();
+        Thread other = new Thread(new Runnable () { @Override public void run() {
+            try {
+                bound.await();
+                seen.set(var.get());
+                var.with("other", new Runnable () { @Override public void run() {
+                    checked.countDown();
+                }});
+            } catch (InterruptedException ex) {
+                throw new RuntimeException(ex);
+            }
+        }});
+        other.start();
+        var.with("main", new Fun.VE () { @Override public void run() throws Exception {
+            bound.countDown();
+            checked.await();
+            assertEquals("main", var.get());
+        }});
+        other.join();
+        assertEquals("global", seen.get());
+        assertEquals("global", var.get());
+    }
+
+    public void testDeepNesting() {
+        final DynamicVariable<Integer> var = new DynamicVariable<Integer>(0);
+        assertEquals(0, var.getCapacity());
+        assertEquals((Integer)100, nest(var, 100));
+        assertEquals((Integer)0, var.get());
+        assertTrue(var.getCapacity() <= 16);
+    }
+
+    private static Integer nest(final DynamicVariable<Integer> var, final int n) {
+        if (n == 0) {
+            return var.get();
+        }
+        return var.with(var.get() + 1, new Fun.R<Integer> () { @Override public Integer call() {
+            return nest(var, n - 1);
+        }});
+    }
+
+    public void testPrimitives() {
+        final DynamicVariable.OfLong budget = new DynamicVariable.OfLong(100);
+        assertEquals(100L, budget.get());
+        assertEquals(40L, budget.with(budget.get() - 60, () -> budget.get()));
+        final DynamicVariable.OfInt depth = new DynamicVariable.OfInt();
+        depth.run(depth.get() + 1, () -> {
+            assertEquals(1, depth.get());
+            assertEquals("2", depth.call(depth.get() + 1, () -> Integer.toString(depth.get())));
+        });
+        assertEquals(0, depth.get());
+        final DynamicVariable.OfDouble ratio = new DynamicVariable.OfDouble(0.5);
+        assertEquals(0.25, ratio.with(0.25, () -> ratio.get()), 0.0);
+        assertEquals(0.5, ratio.get(), 0.0);
+    }
+
+    public void testInheritable() throws Exception {
+        final DynamicVariable<String> var = new DynamicVariable<String>("global", true);
+        final AtomicReference<String> seen = new AtomicReference<String>();
+        final AtomicReference<String> rebound = new AtomicReference<String>();
+        var.with("parent", (Fun.VE) () -> {
+            Thread child = new Thread(() -> {
+                var.with("child", (Runnable) () -> rebound.set(var.get()));
+                seen.set(var.get());
+            });
+            child.start();
+            child.join();
+        });
+        assertEquals("child", rebound.get());
+        assertEquals("parent", seen.get());
+        Thread orphan = new Thread(() -> seen.set(var.get()));
+        orphan.start();
+        orphan.join();
+        assertEquals("global", seen.get());
+    }
 }
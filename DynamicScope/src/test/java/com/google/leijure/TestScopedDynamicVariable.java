@@ -0,0 +1,67 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import com.google.leijure.ScopedDynamicVariable;
+
+import junit.framework.TestCase;
+
+/**
+ * Testing dynamic variables backed by a ScopedValue, where available
+ */
+public class TestScopedDynamicVariable extends TestCase {
+
+    private static boolean hasScopedValue() {
+        try {
+            Class.forName("java.lang.ScopedValue");
+            return true;
+        } catch (ClassNotFoundException ex) {
+            return false;
+        }
+    }
+
+    public void testScopedDynamicVariable() throws Exception {
+        if (!ScopedDynamicVariable.isAvailable()) {
+            assertFalse(DynamicScope.isScoped());
+            if (!hasScopedValue()) {
+                try {
+                    new ScopedDynamicVariable<Integer>(0);
+                    fail();
+                } catch (UnsupportedOperationException ex) { ; }
+            }
+            return;
+        }
+        final DynamicVariable<Integer> var = new ScopedDynamicVariable<Integer>(0);
+        assertEquals((Integer)0, var.get());
+        assertEquals((Integer)3, var.with(3, new Fun.R<Integer> () { @Override public Integer call() {
+            return var.get();
+        }}));
+        try {
+            var.with(5, new Fun.VE () { @Override public void run() throws Exception {
+                assertEquals((Integer)5, var.get());
+                throw new java.io.IOException("oops");
+            }});
+            fail();
+        } catch (java.io.IOException ex) {
+            assertEquals("oops", ex.getMessage());
+        }
+        assertEquals((Integer)0, var.get());
+    }
+
+    public void testNullInitialValue() throws Exception {
+        if (!ScopedDynamicVariable.isAvailable()) {
+            return;
+        }
+        final DynamicVariable<String> var = new ScopedDynamicVariable<String>();
+        assertNull(var.get());
+        assertEquals("bound", var.with("bound", new Fun.R<String> () { @Override public String call() {
+            return var.get();
+        }}));
+        assertNull(var.with(null, new Fun.R<String> () { @Override public String call() {
+            return var.get();
+        }}));
+        assertNull(var.get());
+    }
+}
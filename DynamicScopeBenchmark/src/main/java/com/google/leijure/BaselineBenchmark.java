@@ -0,0 +1,80 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.util.concurrent.TimeUnit;
+
+import clojure.lang.Associative;
+import clojure.lang.Namespace;
+import clojure.lang.RT;
+import clojure.lang.Symbol;
+import clojure.lang.Var;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Baselines for the other benchmarks: a plain ThreadLocal,
+ * bound by saving, setting then restoring its value,
+ * and a Clojure dynamic Var, bound as by {@code binding}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class BaselineBenchmark {
+    private final ThreadLocal<Object> threadLocal = new ThreadLocal<Object>() {
+        @Override protected Object initialValue() { return "initial"; }};
+    private Var var;
+    private Associative varBinding;
+
+    @Setup
+    public void setup() {
+        var = Var.intern(Namespace.findOrCreate(Symbol.intern("leijure.benchmark")),
+                         Symbol.intern("*x*"), "initial").setDynamic();
+        varBinding = RT.map(var, "value");
+    }
+
+    @Benchmark
+    public Object threadLocalGet() {
+        return threadLocal.get();
+    }
+
+    @Benchmark
+    public Object threadLocalWith() {
+        Object saved = threadLocal.get();
+        threadLocal.set("value");
+        try {
+            return threadLocal.get();
+        } finally {
+            threadLocal.set(saved);
+        }
+    }
+
+    @Benchmark
+    public Object varDeref() {
+        return var.deref();
+    }
+
+    @Benchmark
+    public Object varBinding() {
+        Var.pushThreadBindings(varBinding);
+        try {
+            return var.deref();
+        } finally {
+            Var.popThreadBindings();
+        }
+    }
+}
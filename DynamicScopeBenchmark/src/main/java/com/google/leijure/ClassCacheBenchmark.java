@@ -0,0 +1,80 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to first result of a file of rules, in a fresh Clojure runtime,
+ * with a {@link ClassCache} that is empty or already holds its compiled classes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(5)
+public class ClassCacheBenchmark {
+    @Param({"cold", "warm"})
+    public String cache;
+
+    @Param({"200"})
+    public int rules;
+
+    private URL[] urls;
+    private Path directory;
+    private String source;
+
+    @Setup
+    public void setup() throws Exception {
+        urls = new URL[] { clojure.lang.RT.class.getProtectionDomain().getCodeSource().getLocation() };
+        directory = Files.createTempDirectory("class-cache");
+        StringBuilder s = new StringBuilder("(ns bench.rules)\n");
+        for (int i = 0; i < rules; i++) {
+            s.append("(defn rule-").append(i).append(" [m] (when (> (get m :x 0) ").append(i)
+                .append(") {:rule ").append(i).append(" :y (* 2 (:x m))}))\n");
+        }
+        s.append("(defn check [m] (keep #(% m) [");
+        for (int i = 0; i < rules; i++) {
+            s.append(" rule-").append(i);
+        }
+        source = s.append("]))\n").toString();
+        if (cache.equals("warm")) {
+            new ClassCache(ClojureRuntime.isolated(urls), directory).loadString(source);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public Object firstResult() throws Exception {
+        ClojureRuntime runtime = ClojureRuntime.isolated(urls);
+        new ClassCache(runtime, directory).loadString(source);
+        return runtime.loadString("(count (bench.rules/check {:x 100}))");
+    }
+}
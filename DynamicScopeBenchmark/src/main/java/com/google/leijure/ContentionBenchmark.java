@@ -0,0 +1,72 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for a DynamicVariable, a DynamicEnvironment and the DynamicScope
+ * read and bound from as many threads as there are processors at once,
+ * with a plain ThreadLocal as baseline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@Threads(Threads.MAX)
+public class ContentionBenchmark {
+    private final DynamicVariable<Object> var = new DynamicVariable<Object>("initial");
+    private final DynamicEnvironment<Object, Object> environment = new DynamicEnvironment<Object, Object>();
+    private final ThreadLocal<Object> threadLocal = new ThreadLocal<Object>() {
+        @Override protected Object initialValue() { return "initial"; }};
+
+    private final Fun.R<Object> getVar = new Fun.R<Object>() { @Override public Object call() {
+        return var.get();
+    }};
+    private final Fun.R<Object> getEnvironment = new Fun.R<Object>() { @Override public Object call() {
+        return environment.get("key");
+    }};
+    private final Fun.R<Object> getScope = new Fun.R<Object>() { @Override public Object call() {
+        return DynamicScope.get("key");
+    }};
+
+    @Benchmark
+    public Object variableGet() {
+        return var.get();
+    }
+
+    @Benchmark
+    public Object variableWith() {
+        return var.with("value", getVar);
+    }
+
+    @Benchmark
+    public Object environmentWith() {
+        return environment.with("key", "value", getEnvironment);
+    }
+
+    @Benchmark
+    public Object scopeWith() {
+        return DynamicScope.getEnvironment().with("key", "value", getScope);
+    }
+
+    @Benchmark
+    public Object threadLocalGet() {
+        return threadLocal.get();
+    }
+}
@@ -0,0 +1,87 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for reading and extending a DynamicEnvironment
+ * that already holds a given number of bindings,
+ * with each of the map, pair and array overloads of {@code with}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DynamicEnvironmentBenchmark {
+    @Param({"1", "4", "16", "64"})
+    public int bindings;
+
+    /** How many bindings each call to {@code with} adds. */
+    @Param({"1", "4"})
+    public int newBindings;
+
+    private DynamicEnvironment<Object, Object> environment;
+    private Object key;
+    private Object[] kv;
+    private Map<Object, Object> map;
+
+    private final Fun.R<Object> get = new Fun.R<Object>() { @Override public Object call() {
+        return environment.get(key);
+    }};
+
+    @Setup
+    public void setup() {
+        Map<Object, Object> initial = new HashMap<Object, Object>();
+        for (int i = 0; i < bindings; i++) {
+            initial.put("key" + i, "value" + i);
+        }
+        environment = new DynamicEnvironment<Object, Object>(initial);
+        key = "key" + (bindings - 1);
+        kv = new Object[2 * newBindings];
+        map = new HashMap<Object, Object>();
+        for (int i = 0; i < newBindings; i++) {
+            kv[2 * i] = "new" + i;
+            kv[2 * i + 1] = "value" + i;
+            map.put(kv[2 * i], kv[2 * i + 1]);
+        }
+    }
+
+    @Benchmark
+    public Object get() {
+        return environment.get(key);
+    }
+
+    @Benchmark
+    public Object withMap() {
+        return environment.with(map, get);
+    }
+
+    @Benchmark
+    public Object withPair() {
+        return environment.with(kv[0], kv[1], get);
+    }
+
+    @Benchmark
+    public Object withArray() {
+        return environment.with(kv, get);
+    }
+}
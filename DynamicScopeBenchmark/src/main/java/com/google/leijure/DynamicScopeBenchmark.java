@@ -0,0 +1,95 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for DynamicScope.get at various nesting depths and binding counts.
+ * Bindings can't stay open between invocations, so each invocation
+ * establishes the nesting then reads {@link #READS} times:
+ * the cost of the nesting itself is amortized over the reads.
+ * {@code call} and {@code runWith} compare a round trip through the lambda API
+ * and through {@code CallWith}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DynamicScopeBenchmark {
+    static final int READS = 1024;
+
+    @Param({"0", "1", "8", "32"})
+    public int depth;
+
+    @Param({"1", "8", "64"})
+    public int bindings;
+
+    private Map<Object, Object> initial;
+    private Object key;
+
+    @Setup
+    public void setup() {
+        initial = new HashMap<Object, Object>();
+        for (int i = 0; i < bindings; i++) {
+            initial.put("key" + i, "value" + i);
+        }
+        key = "key" + (bindings - 1);
+    }
+
+    private void nest(final int n, final Blackhole bh) {
+        if (n == 0) {
+            for (int i = 0; i < READS; i++) {
+                bh.consume(DynamicScope.get(key));
+            }
+        } else {
+            DynamicScope.getEnvironment().with("depth", n, new Runnable() { @Override public void run() {
+                nest(n - 1, bh);
+            }});
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READS)
+    public void get(final Blackhole bh) {
+        DynamicScope.getEnvironment().with(initial, new Runnable() { @Override public void run() {
+            nest(depth, bh);
+        }});
+    }
+
+    @Benchmark
+    public Object getUnbound() {
+        return DynamicScope.get(key);
+    }
+
+    @Benchmark
+    public Object call() {
+        return DynamicScope.call(key, "value", () -> DynamicScope.get(key));
+    }
+
+    @Benchmark
+    public Object runWith() {
+        return new DynamicScope.CallWith<Object>(key, "value") {
+            public Object call() { return DynamicScope.get(key); }}.get();
+    }
+}
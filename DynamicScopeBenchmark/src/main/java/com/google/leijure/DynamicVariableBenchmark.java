@@ -0,0 +1,74 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks for reading and binding a single DynamicVariable,
+ * and for a long counter held unboxed or boxed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DynamicVariableBenchmark {
+    static final int READS = 1024;
+
+    private final DynamicVariable<Object> var = new DynamicVariable<Object>("initial");
+    private final Object value = "value";
+
+    private final Fun.R<Object> get = new Fun.R<Object>() { @Override public Object call() {
+        return var.get();
+    }};
+
+    @Benchmark
+    public Object getUnbound() {
+        return var.get();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(READS)
+    public void getBound(final Blackhole bh) {
+        var.with(value, new Runnable() { @Override public void run() {
+            for (int i = 0; i < READS; i++) {
+                bh.consume(var.get());
+            }
+        }});
+    }
+
+    @Benchmark
+    public Object with() {
+        return var.with(value, get);
+    }
+
+    private final DynamicVariable.OfLong longVar = new DynamicVariable.OfLong(0);
+    private final DynamicVariable<Long> boxedVar = new DynamicVariable<Long>(0L);
+    private final Fun.R<Long> getBoxed = boxedVar::get;
+
+    @Benchmark
+    public long withLong() {
+        return longVar.with(longVar.get() + 1000, () -> longVar.get());
+    }
+
+    @Benchmark
+    public long withBoxedLong() {
+        return boxedVar.with(boxedVar.get() + 1000, getBoxed);
+    }
+}
@@ -0,0 +1,73 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cold start of {@link LoadClojure}: each measurement is the first one in a fresh JVM,
+ * so it includes loading and initializing {@code clojure.core}.
+ * Run with {@code -jvmArgsAppend -XX:SharedArchiveFile=...} to measure a class-data-sharing archive.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class LoadClojureStartupBenchmark {
+    /**
+     * The command-line entry point, evaluating a trivial form.
+     */
+    @Benchmark
+    public void main() throws Exception {
+        LoadClojure.main(new String[] { "(+ 2 2)" });
+    }
+
+    /**
+     * Other startup work of the application, that background initialization can overlap with.
+     */
+    private static final long OTHER_WORK = 50_000_000;
+
+    /**
+     * Initialization, then the other startup work, then the first use.
+     */
+    @Benchmark
+    public Object initSync() throws Exception {
+        new LoadClojure();
+        Blackhole.consumeCPU(OTHER_WORK);
+        return LoadClojure.loadString("(+ 2 2)");
+    }
+
+    /**
+     * Background initialization, overlapped with the other startup work until the first use:
+     * the difference with {@link #initSync} is the time saved.
+     */
+    @Benchmark
+    public Object initAsync() throws Exception {
+        CompletableFuture<LoadClojure> init = LoadClojure.initAsync(null);
+        Blackhole.consumeCPU(OTHER_WORK);
+        return init.get().loadString("(+ 2 2)");
+    }
+
+    /**
+     * A runtime with its own copy of Clojure, as in a {@link ClojureRuntimePool}.
+     */
+    @Benchmark
+    public Object isolatedRuntime() throws Exception {
+        return ClojureRuntime.isolated(LoadClojure.findClojureJarUrls(
+            clojure.lang.RT.class.getProtectionDomain().getCodeSource().getLocation()))
+            .loadString("(+ 2 2)");
+    }
+}
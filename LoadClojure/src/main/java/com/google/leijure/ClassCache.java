@@ -0,0 +1,215 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Persistent on-disk cache of the classes compiled from Clojure code, as by {@code compile},
+ * so that code evaluated in a previous run of the JVM is loaded as bytecode
+ * rather than read and compiled again.
+ * The entries compiled by a given Clojure jar are in a directory of their own,
+ * named after the Clojure version and a hash of the contents of the jar,
+ * so that a jar rebuilt with the same version, e.g. a SNAPSHOT, has its own entries.
+ * Each entry is keyed by a hash of that directory name and of the code,
+ * and holds the classes compiled from the code in a directory of its own:
+ * a loader class {@code leijure.cache.h<hash>__init} that evaluates each top-level form in turn,
+ * and the classes of the functions that they define.
+ * When the cache is opened, the entries of any other Clojure jar are deleted,
+ * as are the temporary directories left by runs that crashed while compiling;
+ * the cache only deletes directories marked as its own, so other files may share its root.
+ * As with {@code require}, forms are evaluated for effect, and no value is returned.
+ */
+public class ClassCache {
+  private static final String COMPILE_SOURCE =
+    "(fn [rdr path name classes]\n"
+    + "  (with-bindings {clojure.lang.Compiler/LOADER (clojure.lang.RT/makeClassLoader)\n"
+    + "                  #'*compile-path* classes\n"
+    + "                  #'*compile-files* true}\n"
+    + "    (clojure.lang.Compiler/compile rdr path name)))";
+
+  /** The file that marks the directories of the cache, that it may delete. */
+  static final String MARKER = ".leijure-class-cache";
+  /** The age after which a temporary directory is deemed left by a run that crashed. */
+  private static final long STALE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  private final ClojureRuntime runtime;
+  private final Path directory;
+  private final String version;
+  private final Object compileFunction;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * Opens the cache in the given directory, created if needed,
+   * deleting entries compiled by other Clojure jars than that of the runtime.
+   * @param runtime the Clojure runtime in which to compile and load code
+   * @param root the directory of the cache, shared by all Clojure jars
+   */
+  public ClassCache(ClojureRuntime runtime, Path root) throws Exception {
+    this.runtime = runtime;
+    this.version = runtime.loadString("(clojure-version)") + "-" + jarHash(runtime);
+    this.directory = root.resolve(version);
+    this.compileFunction = runtime.loadString(COMPILE_SOURCE);
+    Files.createDirectories(directory);
+    try {
+      Files.createFile(directory.resolve(MARKER));
+    } catch (FileAlreadyExistsException ex) { ; }
+    try (DirectoryStream<Path> versions = Files.newDirectoryStream(root)) {
+      for (Path other : versions) {
+        if (!other.equals(directory) && Files.exists(other.resolve(MARKER))) {
+          delete(other);
+        }
+      }
+    }
+    final FileTime stale = FileTime.fromMillis(System.currentTimeMillis() - STALE_MILLIS);
+    try (DirectoryStream<Path> temporaries = Files.newDirectoryStream(directory, "*.tmp*")) {
+      for (Path temporary : temporaries) {
+        if (Files.getLastModifiedTime(temporary).compareTo(stale) < 0) {
+          delete(temporary);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a hash of the contents of the jar of the Clojure classes of the runtime,
+   * or of its location if it is not a file, e.g. a directory of classes.
+   */
+  private static String jarHash (ClojureRuntime runtime) throws Exception {
+    final CodeSource source = Class.forName("clojure.lang.RT", false, runtime.getClassLoader())
+      .getProtectionDomain().getCodeSource();
+    if (source == null || source.getLocation() == null) {
+      return "unknown";
+    }
+    final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    final URL location = source.getLocation();
+    Path jar = null;
+    try {
+      jar = Paths.get(location.toURI());
+    } catch (Exception ex) { ; }
+    if (jar != null && Files.isRegularFile(jar)) {
+      digest.update(Files.readAllBytes(jar));
+    } else {
+      digest.update(location.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    return hex(digest.digest(), 8);
+  }
+
+  private static String hex (byte[] hash, int length) {
+    final StringBuilder hex = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      hex.append(Character.forDigit((hash[i] >> 4) & 0xF, 16)).append(Character.forDigit(hash[i] & 0xF, 16));
+    }
+    return hex.toString();
+  }
+
+  private static void delete (Path path) throws IOException {
+    try (Stream<Path> files = Files.walk(path)) {
+      for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+        Files.deleteIfExists(file);
+      }
+    }
+  }
+
+  /**
+   * Returns the key of some code: a hash of the Clojure version and jar, and of the code.
+   */
+  private String key (String source) throws Exception {
+    final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    digest.update(version.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+    return "h" + hex(digest.digest(source.getBytes(StandardCharsets.UTF_8)), 16);
+  }
+
+  /**
+   * Evaluates the forms in a string, from the classes compiled by a previous run if any,
+   * or else compiling them into the cache as they are evaluated.
+   * @param source a String containing clojure expressions to evaluate
+   * @param sourceName the name of the source, for stack traces and error messages
+   * @throws whatever the evaluated form throws.
+   */
+  public void loadString (String source, String sourceName) throws Exception {
+    final String key = key(source);
+    final Path entry = directory.resolve(key);
+    if (Files.isDirectory(entry)) {
+      hits.incrementAndGet();
+      final URLClassLoader loader = new URLClassLoader(
+        new URL[] { entry.toUri().toURL() }, runtime.getClassLoader());
+      final ClassLoader previous = runtime.enter();
+      try {
+        Class.forName("leijure.cache." + key + "__init", true, loader);
+      } catch (ExceptionInInitializerError e) {
+        throw ClojureRuntime.rethrow(e.getCause());
+      } finally {
+        ClojureRuntime.exit(previous);
+      }
+      return;
+    }
+    misses.incrementAndGet();
+    // Compile in a directory of our own, then move it into place, so that concurrent users
+    // of the cache see either nothing or a complete entry.
+    final Path temporary = Files.createTempDirectory(directory, key + ".tmp");
+    try {
+      runtime.invoke(compileFunction, new StringReader(source),
+                     "leijure/cache/" + key + ".clj", sourceName, temporary.toString());
+      try {
+        Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE);
+      } catch (FileAlreadyExistsException | AtomicMoveNotSupportedException ex) {
+        // Another run compiled the same entry meanwhile, or the file system can't do it.
+      }
+    } finally {
+      if (Files.exists(temporary)) {
+        delete(temporary);
+      }
+    }
+  }
+
+  public void loadString (String source) throws Exception {
+    loadString(source, "NO_SOURCE_FILE");
+  }
+
+  /**
+   * Evaluates the forms in a UTF-8 file, from the classes compiled by a previous run if any.
+   * @see #loadString(String, String)
+   */
+  public void loadFile (Path file) throws Exception {
+    loadString(new String(Files.readAllBytes(file), StandardCharsets.UTF_8),
+               file.getFileName().toString());
+  }
+
+  public Path getDirectory () {
+    return directory;
+  }
+
+  /** Number of evaluations loaded from the cache. */
+  public long getHits () {
+    return hits.get();
+  }
+
+  /** Number of evaluations compiled into the cache. */
+  public long getMisses () {
+    return misses.get();
+  }
+}
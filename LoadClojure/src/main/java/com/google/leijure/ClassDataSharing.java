@@ -0,0 +1,102 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers to start a JVM with a dynamic class-data-sharing (AppCDS) archive,
+ * so that the classes of Clojure, once parsed and verified by a first run,
+ * are mapped from the archive by later runs rather than loaded again, which cuts startup time.
+ * The archive is dumped at exit by the first run, and reused by later runs, on JDK 13 or later.
+ * It is only valid for the same JDK and class path: delete it when either changes,
+ * though JDK 19 and later detect that and recreate it.
+ * The class path must only have jars: the JVM refuses an archive with non-empty directories.
+ * Classes that Clojure compiles at runtime are not archived, only those loaded from jars.
+ */
+public final class ClassDataSharing {
+  private ClassDataSharing() {}
+
+  /**
+   * Returns the JVM options to dump the archive at exit if it doesn't exist, or else use it.
+   * @param archive the path of the archive file.
+   */
+  public static List<String> jvmOptions (Path archive) {
+    final List<String> options = new ArrayList<String>();
+    if (Runtime.version().feature() >= 19) {
+      options.add("-XX:+AutoCreateSharedArchive");
+      options.add("-XX:SharedArchiveFile=" + archive);
+    } else if (Files.exists(archive)) {
+      options.add("-XX:SharedArchiveFile=" + archive);
+    } else {
+      options.add("-XX:ArchiveClassesAtExit=" + archive);
+    }
+    return options;
+  }
+
+  /**
+   * Returns true if the JVM option is one of those that {@link #jvmOptions} returns.
+   */
+  private static boolean isArchiveOption (String option) {
+    return option.startsWith("-XX:SharedArchiveFile=") || option.startsWith("-XX:ArchiveClassesAtExit=")
+      || option.equals("-XX:+AutoCreateSharedArchive") || option.equals("-XX:-AutoCreateSharedArchive");
+  }
+
+  /**
+   * Returns true if the current JVM was started with options to dump or use an archive.
+   */
+  public static boolean isArchiveConfigured () {
+    for (String arg : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+      if (arg.startsWith("-XX:SharedArchiveFile=") || arg.startsWith("-XX:ArchiveClassesAtExit=")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the command to run a main class in a new JVM like the current one,
+   * with the same JVM options and class path, and with the archive instead of any other.
+   * The JVM options include those from the environment variables {@code JAVA_TOOL_OPTIONS}
+   * and {@code JDK_JAVA_OPTIONS}, that the new JVM should not also get from its environment.
+   * @param archive the path of the archive file.
+   * @param mainClass the name of the class whose main method to run.
+   * @param args the command-line arguments to pass it.
+   */
+  public static List<String> command (Path archive, String mainClass, List<String> args) {
+    final List<String> command = new ArrayList<String>();
+    command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+    for (String option : ManagementFactory.getRuntimeMXBean().getInputArguments()) {
+      if (!isArchiveOption(option)) {
+        command.add(option);
+      }
+    }
+    command.addAll(jvmOptions(archive));
+    command.add("-cp");
+    command.add(System.getProperty("java.class.path"));
+    command.add(mainClass);
+    command.addAll(args);
+    return command;
+  }
+
+  /**
+   * Runs a main class in a new JVM with the archive, with the same standard input and output,
+   * and waits for it to exit.
+   * @return the exit status of the new JVM.
+   * @see #command
+   */
+  public static int run (Path archive, String mainClass, List<String> args) throws Exception {
+    final ProcessBuilder builder = new ProcessBuilder(command(archive, mainClass, args)).inheritIO();
+    // Their options are already in the command.
+    builder.environment().remove("JAVA_TOOL_OPTIONS");
+    builder.environment().remove("JDK_JAVA_OPTIONS");
+    return builder.start().waitFor();
+  }
+}
@@ -0,0 +1,689 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.io.Reader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * A Clojure runtime, as loaded by a given class loader, and the means to call it.
+ * Clojure is called through method handles bound once when the runtime is created,
+ * adapted to take and return plain {@code Object}s so they can be invoked exactly
+ * without any argument array, and that let the exceptions of Clojure code through as is.
+ * These handles are in final instance fields, that the JIT does not trust as constants,
+ * so calls through them are not inlined as calls through constant handles would be;
+ * the static methods of {@link LoadClojure} call the global runtime through constant handles.
+ * An isolated runtime, created by {@link #isolated}, has its own copy of the Clojure classes,
+ * hence its own {@code RT}, namespaces and Vars, that no other runtime can see.
+ */
+public class ClojureRuntime {
+  /** The maximum number of arguments of {@link #invoke}. */
+  static final int MAX_ARITY = 4;
+
+  private final ClassLoader loader;
+  private final boolean isolated;
+  private final MethodHandle symbolIntern;
+  private final MethodHandle varIntern;
+  private final MethodHandle varDeref;
+  private final MethodHandle[] ifnInvoke = new MethodHandle[MAX_ARITY + 1];
+  private final MethodHandle compilerLoad;
+  private final MethodHandle cloneThreadBindingFrame;
+  private final MethodHandle getThreadBindingFrame;
+  private final MethodHandle resetThreadBindingFrame;
+  private final Object loadStringFunction;
+  private final Object currentNamespaceVar;
+  private volatile Object evaluateFunction;
+  private volatile Object compileFunction;
+
+  /**
+   * Evaluates the forms of a string one by one, like {@code load-string},
+   * but compiling each form into a function before calling it, so as to time each step,
+   * and optionally in a temporary namespace.
+   * Like {@code Compiler.eval}, it evaluates the subforms of a top-level {@code do}
+   * one after the other, so that {@code ns} forms and the like take effect for the next forms.
+   * Like {@code Compiler.load}, it binds the Vars that the forms may {@code set!},
+   * such as {@code *warn-on-reflection*} and {@code *unchecked-math*}, for the whole string.
+   * Times and form count are accumulated in the given array, even if an exception is thrown.
+   */
+  private static final String EVALUATE_SOURCE =
+    "(fn [^String s disposable ^longs times]\n"
+    + "  (let [rdr (clojure.lang.LineNumberingPushbackReader. (java.io.StringReader. s))\n"
+    + "        eof (Object.)\n"
+    + "        ns (if disposable (create-ns (gensym \"disposable-\")) *ns*)\n"
+    + "        since (fn [i ^long t0] (aset times i (+ (aget times i) (- (System/nanoTime) t0))))]\n"
+    + "    (try\n"
+    + "      (binding [*ns* ns *file* nil *source-path* \"NO_SOURCE_FILE\"\n"
+    + "                *read-eval* *read-eval* *data-readers* *data-readers*\n"
+    + "                *unchecked-math* *unchecked-math* *warn-on-reflection* *warn-on-reflection*]\n"
+    + "        (when disposable (refer 'clojure.core))\n"
+    + "        (letfn [(run [form]\n"
+    + "                  (let [t0 (System/nanoTime)\n"
+    + "                        form (macroexpand form)]\n"
+    + "                    (if (and (seq? form) (= 'do (first form)))\n"
+    + "                      (do (since 0 t0)\n"
+    + "                          (loop [forms (next form) v nil]\n"
+    + "                            (if forms (recur (next forms) (run (first forms))) v)))\n"
+    + "                      (let [f (eval (list 'fn* [] form))\n"
+    + "                            t1 (System/nanoTime)]\n"
+    + "                        (since 0 t0)\n"
+    + "                        (try (f) (finally (since 1 t1)))))))]\n"
+    + "          (loop [v nil]\n"
+    + "            (let [t0 (System/nanoTime)\n"
+    + "                  form (read rdr false eof)]\n"
+    + "              (since 0 t0)\n"
+    + "              (if (identical? form eof)\n"
+    + "                v\n"
+    + "                (do (aset times 2 (inc (aget times 2)))\n"
+    + "                    (recur (run form))))))))\n"
+    + "      (finally (when disposable (remove-ns (.getName ^clojure.lang.Namespace ns)))))))";
+
+  /**
+   * Reads all the forms of a string, then compiles them into a function of no argument
+   * that evaluates them in turn, as by {@code (fn [] (do forms...))}.
+   * The forms are read as data, so that the string can only be a sequence of whole forms.
+   */
+  private static final String COMPILE_SOURCE =
+    "(fn [^String s]\n"
+    + "  (let [rdr (clojure.lang.LineNumberingPushbackReader. (java.io.StringReader. s))\n"
+    + "        eof (Object.)]\n"
+    + "    (loop [forms []]\n"
+    + "      (let [form (read rdr false eof)]\n"
+    + "        (if (identical? form eof)\n"
+    + "          (eval (list 'clojure.core/fn [] (cons 'do forms)))\n"
+    + "          (recur (conj forms form)))))))";
+
+  /**
+   * Rethrows what a method handle threw: checked exceptions are thrown as is,
+   * though the method does not declare them, which Clojure code does too.
+   */
+  static Exception rethrow (Throwable t) throws Exception {
+    if (t instanceof Exception) {
+      throw (Exception) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    }
+    throw new UndeclaredThrowableException(t);
+  }
+
+  /**
+   * Initializes the Clojure runtime found in the given class loader.
+   * @param loader the class loader in which to find {@code clojure.lang.RT}.
+   * @param isolated whether to make the loader the context class loader during each call,
+   * as Clojure needs to find its own classes, rather than rely on the caller doing it.
+   */
+  ClojureRuntime(ClassLoader loader, boolean isolated) throws Exception {
+    this.loader = loader;
+    this.isolated = isolated;
+    final Thread thread = Thread.currentThread();
+    final ClassLoader previous = thread.getContextClassLoader();
+    thread.setContextClassLoader(loader);
+    try {
+      Class.forName("clojure.lang.RT", true, loader);
+      final Class<?> symbolClass = Class.forName("clojure.lang.Symbol", true, loader);
+      final Class<?> varClass = Class.forName("clojure.lang.Var", true, loader);
+      final Class<?> ifnClass = Class.forName("clojure.lang.IFn", true, loader);
+      final Class<?> compilerClass = Class.forName("clojure.lang.Compiler", true, loader);
+
+      final MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      symbolIntern = lookup.findStatic(symbolClass, "intern",
+                                       MethodType.methodType(symbolClass, String.class))
+        .asType(MethodType.methodType(Object.class, Object.class));
+      varIntern = lookup.findStatic(varClass, "intern",
+                                    MethodType.methodType(varClass, symbolClass, symbolClass))
+        .asType(MethodType.genericMethodType(2));
+      varDeref = lookup.findVirtual(varClass, "deref", MethodType.methodType(Object.class))
+        .asType(MethodType.genericMethodType(1));
+      for (int arity = 0; arity <= MAX_ARITY; arity++) {
+        ifnInvoke[arity] = lookup.findVirtual(ifnClass, "invoke", MethodType.genericMethodType(arity))
+          .asType(MethodType.genericMethodType(arity + 1));
+      }
+      compilerLoad = lookup.findStatic(compilerClass, "load", MethodType.methodType(
+          Object.class, Reader.class, String.class, String.class));
+      cloneThreadBindingFrame = lookup.findStatic(varClass, "cloneThreadBindingFrame",
+                                                  MethodType.methodType(Object.class));
+      getThreadBindingFrame = lookup.findStatic(varClass, "getThreadBindingFrame",
+                                                MethodType.methodType(Object.class));
+      resetThreadBindingFrame = lookup.findStatic(varClass, "resetThreadBindingFrame",
+                                                  MethodType.methodType(void.class, Object.class));
+
+      loadStringFunction = var("clojure.core/load-string");
+      currentNamespaceVar = var("clojure.core/*ns*");
+    } finally {
+      thread.setContextClassLoader(previous);
+    }
+  }
+
+  /**
+   * Creates a runtime isolated from all others, with its own copy of the Clojure classes
+   * loaded by a new class loader from the given URLs.
+   * @param urls the URLs where to look for the clojure jar, and any other code to load with it.
+   */
+  public static ClojureRuntime isolated (URL[] urls) throws Exception {
+    return new ClojureRuntime(new URLClassLoader(urls, ClassLoader.getPlatformClassLoader()), true);
+  }
+
+  /**
+   * Returns the class loader of the Clojure classes of this runtime.
+   */
+  public ClassLoader getClassLoader () {
+    return loader;
+  }
+
+  /**
+   * Returns the clojure Symbol with specified name.
+   * @param qualifiedName the String holding the qualified, e.g. {@code "clojure.core/read-string"}
+   * @return the interned Symbol (actually of type {@code clojure.lang.Symbol})
+   * or {@code null} if an exception occured
+   */
+  final Object intern (String qualifiedName) {
+    try {
+      return (Object) symbolIntern.invokeExact((Object) qualifiedName);
+    } catch (Throwable t) {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the clojure Var object with specified name.
+   * @param qualifiedName the String holding the qualified, e.g. {@code "clojure.core/println"}
+   * @return the interned Var (actually of type {@code clojure.lang.Var})
+   * or {@code null} if an exception occurred.
+   */
+  final Object var (String qualifiedName) {
+    try {
+      final int slash = qualifiedName.indexOf('/');
+      return (Object) varIntern.invokeExact(intern(qualifiedName.substring(0, slash)),
+                                            intern(qualifiedName.substring(slash + 1)));
+    } catch (Throwable t) {
+      t.printStackTrace();
+      return null;
+    }
+  }
+
+  /**
+   * Returns the current namespace, i.e. the value of {@code *ns*} in the current thread.
+   * @return the namespace (actually of type {@code clojure.lang.Namespace})
+   */
+  public Object currentNamespace () {
+    try {
+      return (Object) varDeref.invokeExact(currentNamespaceVar);
+    } catch (RuntimeException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new UndeclaredThrowableException(t);
+    }
+  }
+
+  /**
+   * Returns the method handle of {@code IFn.invoke} with the given number of arguments,
+   * taking the function then the arguments as {@code Object}s.
+   */
+  MethodHandle invoker (int arity) {
+    return ifnInvoke[arity];
+  }
+
+  /**
+   * Makes the class loader of an isolated runtime the context class loader,
+   * returning the previous one to restore, or {@code null} if there is nothing to restore.
+   */
+  ClassLoader enter () {
+    if (!isolated) {
+      return null;
+    }
+    final Thread thread = Thread.currentThread();
+    final ClassLoader previous = thread.getContextClassLoader();
+    if (previous == loader) {
+      return null;
+    }
+    thread.setContextClassLoader(loader);
+    return previous;
+  }
+
+  static void exit (ClassLoader previous) {
+    if (previous != null) {
+      Thread.currentThread().setContextClassLoader(previous);
+    }
+  }
+
+  /**
+   * Calls a Clojure function without arguments, as by {@code IFn.invoke()}.
+   * @param fn the function (actually of type {@code clojure.lang.IFn})
+   * @return the value returned by the function
+   * @throws whatever the function throws.
+   */
+  public Object invoke (Object fn) throws Exception {
+    final ClassLoader previous = enter();
+    try {
+      return (Object) ifnInvoke[0].invokeExact(fn);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    } finally {
+      exit(previous);
+    }
+  }
+
+  /**
+   * Calls a Clojure function with one argument, as by {@code IFn.invoke(Object)}.
+   * @see #invoke(Object)
+   */
+  public Object invoke (Object fn, Object a) throws Exception {
+    final ClassLoader previous = enter();
+    try {
+      return (Object) ifnInvoke[1].invokeExact(fn, a);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    } finally {
+      exit(previous);
+    }
+  }
+
+  /**
+   * Calls a Clojure function with two arguments, as by {@code IFn.invoke(Object, Object)}.
+   * @see #invoke(Object)
+   */
+  public Object invoke (Object fn, Object a, Object b) throws Exception {
+    final ClassLoader previous = enter();
+    try {
+      return (Object) ifnInvoke[2].invokeExact(fn, a, b);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    } finally {
+      exit(previous);
+    }
+  }
+
+  /**
+   * Calls a Clojure function with three arguments.
+   * @see #invoke(Object)
+   */
+  public Object invoke (Object fn, Object a, Object b, Object c) throws Exception {
+    final ClassLoader previous = enter();
+    try {
+      return (Object) ifnInvoke[3].invokeExact(fn, a, b, c);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    } finally {
+      exit(previous);
+    }
+  }
+
+  /**
+   * Calls a Clojure function with four arguments.
+   * @see #invoke(Object)
+   */
+  public Object invoke (Object fn, Object a, Object b, Object c, Object d) throws Exception {
+    final ClassLoader previous = enter();
+    try {
+      return (Object) ifnInvoke[4].invokeExact(fn, a, b, c, d);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    } finally {
+      exit(previous);
+    }
+  }
+
+  /**
+   * Evaluates a string as a sequence of Clojure expressions as by {@code load-string}
+   * @param forms a String containing clojure expressions to evaluate
+   * @return the value of the last expression in the string
+   * @throws whatever the evaluated form throws.
+   */
+  public Object loadString (String forms) throws Exception {
+    return invoke(loadStringFunction, forms);
+  }
+
+  /**
+   * Compiles a string as a sequence of Clojure expressions into a function of no arguments
+   * that evaluates them each time it is called, as by {@code (fn [] (do forms...))}.
+   * The forms are all read before any is compiled, so a string that isn't a sequence
+   * of whole forms, e.g. with unbalanced parentheses, fails to read rather than compiling
+   * into something else; and a form may not use definitions or namespace changes
+   * made by a previous one in the string.
+   * @param forms a String containing clojure expressions to compile
+   * @return the function (actually of type {@code clojure.lang.IFn})
+   * @throws whatever reading or compiling the forms throws.
+   */
+  public Object compileString (String forms) throws Exception {
+    Object compile = compileFunction;
+    if (compile == null) {
+      compileFunction = compile = loadString(COMPILE_SOURCE);
+    }
+    return invoke(compile, forms);
+  }
+
+  /**
+   * Evaluates the Clojure expressions read from a Reader, as by {@code load-reader},
+   * reading and evaluating each form before the next is read, so that only one is in memory.
+   * Errors, including while reading, mention the source path and line of the form.
+   * @param reader the Reader from which to read the forms, best buffered.
+   * @param sourcePath the path of the source, e.g. {@code "my/app/rules.clj"}, for error messages
+   * @param sourceName the name of the source file, e.g. {@code "rules.clj"}, for stack traces
+   * @return the value of the last expression read
+   * @throws whatever the evaluated form throws, encapsulated in a
+   * {@code clojure.lang.Compiler.CompilerException} with the source path and line.
+   */
+  public Object loadReader (Reader reader, String sourcePath, String sourceName) throws Exception {
+    final ClassLoader previous = enter();
+    try {
+      return (Object) compilerLoad.invokeExact(reader, sourcePath, sourceName);
+    } catch (Throwable t) {
+      throw rethrow(t);
+    } finally {
+      exit(previous);
+    }
+  }
+
+  /**
+   * Evaluates many strings, each as by {@link #loadString}, in parallel on the given executor,
+   * in tasks of up to {@code chunkSize} consecutive strings, to amortize the cost of each task.
+   * Each task runs with the Clojure thread bindings of the caller, e.g. of {@code *ns*},
+   * as by {@code binding-conveyor-fn}.
+   * The strings should be independent, as their order of evaluation is unspecified.
+   * @param forms the strings containing clojure expressions to evaluate
+   * @param executor the executor on which to run the tasks, e.g. a {@code ForkJoinPool}
+   * @param chunkSize the maximum number of strings evaluated by each task
+   * @return the results of each string, in order, value or exception,
+   * which is a {@code RejectedExecutionException} if the executor rejected its task
+   * @throws InterruptedException if interrupted while waiting for the results.
+   */
+  public List<Result> loadAll (Iterable<String> forms, Executor executor, int chunkSize)
+    throws InterruptedException {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+    }
+    final List<String> inputs = new ArrayList<String>();
+    for (String f : forms) {
+      inputs.add(f);
+    }
+    final Result[] results = new Result[inputs.size()];
+    final Object frame;
+    try {
+      frame = (Object) cloneThreadBindingFrame.invokeExact();
+    } catch (Throwable t) {
+      throw new UndeclaredThrowableException(t);
+    }
+    final List<CompletableFuture<Void>> tasks = new ArrayList<CompletableFuture<Void>>();
+    for (int start = 0; start < results.length; start += chunkSize) {
+      final int from = start;
+      final int to = Math.min(start + chunkSize, results.length);
+      try {
+        tasks.add(CompletableFuture.runAsync(new Runnable() { @Override public void run() {
+          loadChunk(frame, inputs, results, from, to);
+        }}, executor));
+      } catch (RejectedExecutionException ex) {
+        // The executor is shut down or saturated: these strings fail, the others may not.
+        for (int i = from; i < to; i++) {
+          results[i] = new Result(null, ex);
+        }
+      }
+    }
+    try {
+      CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[tasks.size()])).get();
+    } catch (ExecutionException ex) {
+      // Each string's exception is in its result: this is an Error,
+      // or a failure to switch the Clojure binding frame.
+      final Throwable cause = ex.getCause();
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new UndeclaredThrowableException(cause);
+    }
+    return Arrays.asList(results);
+  }
+
+  /**
+   * Evaluates many strings from a stream, each as by {@link #loadString}, in parallel.
+   * @see #loadAll(Iterable, Executor, int)
+   */
+  public List<Result> loadAll (Stream<String> forms, Executor executor, int chunkSize)
+    throws InterruptedException {
+    return loadAll((Iterable<String>) forms::iterator, executor, chunkSize);
+  }
+
+  /**
+   * Evaluates the strings from index {@code from} to {@code to} with the given binding frame.
+   */
+  private void loadChunk (Object frame, List<String> inputs, Result[] results, int from, int to) {
+    final ClassLoader previousLoader = enter();
+    final Object previousFrame;
+    try {
+      previousFrame = (Object) getThreadBindingFrame.invokeExact();
+      resetThreadBindingFrame.invokeExact(frame);
+    } catch (Throwable t) {
+      exit(previousLoader);
+      throw new UndeclaredThrowableException(t);
+    }
+    try {
+      for (int i = from; i < to; i++) {
+        try {
+          results[i] = new Result(loadString(inputs.get(i)), null);
+        } catch (Exception ex) {
+          results[i] = new Result(null, ex);
+        }
+      }
+    } finally {
+      try {
+        resetThreadBindingFrame.invokeExact(previousFrame);
+      } catch (Throwable t) {
+        throw new UndeclaredThrowableException(t);
+      } finally {
+        exit(previousLoader);
+      }
+    }
+  }
+
+  /**
+   * The result of evaluating one string: either its value, or the exception it threw.
+   */
+  public static final class Result {
+    private final Object value;
+    private final Exception exception;
+
+    Result(Object value, Exception exception) {
+      this.value = value;
+      this.exception = exception;
+    }
+
+    public boolean isSuccess() { return exception == null; }
+
+    /** Returns the value, or {@code null} if an exception was thrown. */
+    public Object getValue() { return value; }
+
+    /** Returns the exception thrown, or {@code null} if none. */
+    public Exception getException() { return exception; }
+
+    /**
+     * Returns the value, or throws the exception thrown.
+     */
+    public Object get() throws Exception {
+      if (exception != null) {
+        throw exception;
+      }
+      return value;
+    }
+
+    @Override
+    public String toString() {
+      return exception == null ? "Result{value=" + value + "}" : "Result{exception=" + exception + "}";
+    }
+  }
+
+  /**
+   * Returns the Clojure type hint for a class, as a symbol for primitive types, else a string.
+   */
+  private static String hint (Class<?> type) {
+    return type.isPrimitive() ? "^" + type.getName() : "^\"" + type.getName() + "\"";
+  }
+
+  /**
+   * Returns true if the method has the signature of a public method of {@code Object}.
+   */
+  private static boolean isObjectMethod (Method method) {
+    try {
+      Object.class.getMethod(method.getName(), method.getParameterTypes());
+      return true;
+    } catch (NoSuchMethodException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns an implementation of a Java interface whose methods call the Clojure functions
+   * of the same name in a namespace, in lower-case with dashes between words if not found as is,
+   * e.g. method {@code checkRule} calls {@code check-rule}.
+   * The functions must be defined in the namespace itself, not only referred to by it,
+   * e.g. from {@code clojure.core}.
+   * Abstract redeclarations of the public methods of {@code Object}, such as
+   * {@code Comparator.equals}, are left to the implementation of {@code Object}.
+   * The namespace is required if not loaded yet, and each function is resolved to its Var once;
+   * the implementation is then compiled once by {@code reify}, so that each method
+   * converts its arguments and result as declared and calls the current value of the Var
+   * through {@code IFn.invoke}, with neither reflection, nor evaluation, nor any other overhead.
+   * The interface must be visible from the class loader of this runtime.
+   * @param iface the interface to implement
+   * @param namespace the name of the namespace where to find the functions
+   * @return an implementation of the interface
+   * @throws IllegalArgumentException if iface is not an interface or a function is missing,
+   * or whatever requiring the namespace throws.
+   */
+  public <T> T bind (Class<T> iface, String namespace) throws Exception {
+    if (!iface.isInterface()) {
+      throw new IllegalArgumentException(iface.getName() + " is not an interface");
+    }
+    loadString("(when-not (find-ns '" + namespace + ") (require '" + namespace + "))");
+    final Object interned = loadString(
+      "(fn [ns sym] (.findInternedVar ^clojure.lang.Namespace (the-ns ns) sym))");
+    final StringBuilder form = new StringBuilder("(reify ").append(iface.getName());
+    for (Method method : iface.getMethods()) {
+      if (!Modifier.isAbstract(method.getModifiers()) || isObjectMethod(method)) {
+        continue;
+      }
+      String function = method.getName();
+      if (invoke(interned, intern(namespace), intern(function)) == null) {
+        function = function.replaceAll("([a-z0-9])([A-Z])", "$1-$2").toLowerCase();
+        if (invoke(interned, intern(namespace), intern(function)) == null) {
+          throw new IllegalArgumentException(
+            "No function " + namespace + "/" + function + " for method " + method);
+        }
+      }
+      final StringBuilder args = new StringBuilder();
+      // Hint the result and each parameter so as to select among overloaded methods.
+      form.append("\n (").append(hint(method.getReturnType())).append(' ')
+        .append(method.getName()).append(" [_");
+      final Class<?>[] types = method.getParameterTypes();
+      for (int i = 0; i < types.length; i++) {
+        form.append(' ').append(hint(types[i])).append(" a").append(i);
+        args.append(" a").append(i);
+      }
+      form.append("] (").append(namespace).append('/').append(function).append(args).append("))");
+    }
+    form.append(")");
+    return iface.cast(loadString(form.toString()));
+  }
+
+  /**
+   * Evaluates a string as a sequence of Clojure expressions, like {@link #loadString},
+   * and measures the time spent reading and compiling versus executing its forms,
+   * and the classes loaded by the whole JVM meanwhile; the measures are also added to {@link LoadClojureMetrics}
+   * if enabled.
+   * Unlike {@code load-string}, each top-level form is compiled into a function of no argument
+   * before it is called, which changes the stack traces; the forms otherwise see the same
+   * Var bindings as with {@code load-string}, so they may {@code set!} Vars such as
+   * {@code *warn-on-reflection*} or {@code *unchecked-math*}, and but for a disposable namespace,
+   * the same {@code *ns*}.
+   * @param forms a String containing clojure expressions to evaluate
+   * @param disposable whether to evaluate the forms in a new namespace, removed afterwards,
+   * so that the classes they compile can be unloaded once the value is no longer used;
+   * this namespace only refers to {@code clojure.core}, so other names must be qualified.
+   * @return the value of the last expression in the string and the measures
+   * @throws whatever the evaluated form throws, once measured.
+   */
+  public Evaluation evaluate (String forms, boolean disposable) throws Exception {
+    Object evaluate = evaluateFunction;
+    if (evaluate == null) {
+      evaluateFunction = evaluate = loadString(EVALUATE_SOURCE);
+    }
+    final long[] times = new long[3];
+    final long classes = LoadClojureMetrics.totalLoadedClassCount();
+    Object value = null;
+    Exception exception = null;
+    try {
+      value = invoke(evaluate, forms, disposable, times);
+    } catch (Exception ex) {
+      exception = ex;
+    }
+    final Evaluation evaluation = new Evaluation(
+      value, exception, (int) times[2], times[0], times[1],
+      LoadClojureMetrics.totalLoadedClassCount() - classes);
+    if (LoadClojureMetrics.enabled) {
+      LoadClojureMetrics.onEvaluation(evaluation);
+    }
+    if (exception != null) {
+      throw exception;
+    }
+    return evaluation;
+  }
+
+  /**
+   * The value of a string evaluated by {@link #evaluate}, and the measures of its evaluation.
+   */
+  public static final class Evaluation {
+    private final Object value;
+    private final Exception exception;
+    private final int forms;
+    private final long readCompileNanos;
+    private final long executeNanos;
+    private final long jvmClassesLoaded;
+
+    Evaluation(Object value, Exception exception, int forms,
+               long readCompileNanos, long executeNanos, long jvmClassesLoaded) {
+      this.value = value;
+      this.exception = exception;
+      this.forms = forms;
+      this.readCompileNanos = readCompileNanos;
+      this.executeNanos = executeNanos;
+      this.jvmClassesLoaded = jvmClassesLoaded;
+    }
+
+    /** The value of the last form. */
+    public Object getValue() { return value; }
+    /** The exception thrown, if any, only seen by {@link LoadClojureMetrics}. */
+    Exception getException() { return exception; }
+    /** Number of top-level forms evaluated. */
+    public int getForms() { return forms; }
+    /** Time spent reading, macroexpanding and compiling forms. */
+    public long getReadCompileNanos() { return readCompileNanos; }
+    /** Time spent executing compiled forms. */
+    public long getExecuteNanos() { return executeNanos; }
+    /**
+     * Classes loaded by the whole JVM during the evaluation: an approximation of the classes
+     * that it generated, as it includes those loaded by other threads meanwhile,
+     * e.g. by concurrent evaluations with {@link ClojureRuntime#loadAll} or a pool.
+     */
+    public long getJvmClassesLoaded() { return jvmClassesLoaded; }
+
+    @Override
+    public String toString() {
+      return "Evaluation{value=" + value + ", forms=" + forms
+        + ", readCompileNanos=" + readCompileNanos + ", executeNanos=" + executeNanos
+        + ", jvmClassesLoaded=" + jvmClassesLoaded + "}";
+    }
+  }
+}
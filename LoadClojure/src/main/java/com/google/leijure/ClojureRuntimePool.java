@@ -0,0 +1,201 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of isolated Clojure runtimes, to evaluate independent code in parallel.
+ * Each {@link ClojureRuntime} has its own copy of the Clojure classes, loaded by its own
+ * {@code URLClassLoader}, hence its own namespaces, and its own worker thread,
+ * so that evaluations in different runtimes neither collide nor wait for each other.
+ * Evaluations go to the least busy runtime, or, given a tenant,
+ * always to the same runtime for that tenant, so it can keep state from one to the next.
+ */
+public class ClojureRuntimePool implements Closeable {
+  private final ClojureRuntime[] runtimes;
+  private final ExecutorService[] workers;
+  private final AtomicInteger[] pending;
+
+  /**
+   * Creates a pool of isolated runtimes.
+   * @param size the number of runtimes, e.g. the number of available processors.
+   * @param jarUrl an optional URL where to look for the clojure jar,
+   * otherwise looked for where it was found on the class path, then as by {@link LoadClojure}.
+   */
+  public ClojureRuntimePool(int size, URL jarUrl) throws Exception {
+    if (size <= 0) {
+      throw new IllegalArgumentException("Pool size must be positive: " + size);
+    }
+    final URL[] urls = clojureJarUrls(jarUrl);
+    runtimes = new ClojureRuntime[size];
+    workers = new ExecutorService[size];
+    pending = new AtomicInteger[size];
+    for (int i = 0; i < size; i++) {
+      final ClojureRuntime runtime = ClojureRuntime.isolated(urls);
+      final String name = "clojure-runtime-" + i;
+      runtimes[i] = runtime;
+      workers[i] = Executors.newSingleThreadExecutor(task -> {
+        final Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.setContextClassLoader(runtime.getClassLoader());
+        return thread;
+      });
+      pending[i] = new AtomicInteger();
+    }
+  }
+
+  public ClojureRuntimePool(int size) throws Exception {
+    this(size, null);
+  }
+
+  /**
+   * Computes the URLs of an isolated runtime: the specified jar if any,
+   * else the jar or directory Clojure was loaded from in the current context, if any,
+   * then the usual locations.
+   */
+  private static URL[] clojureJarUrls (URL jarUrl) throws IOException {
+    final List<URL> urls = new ArrayList<URL>();
+    if (jarUrl == null) {
+      final ClassLoader context = Thread.currentThread().getContextClassLoader();
+      final URL rt = context == null ? null : context.getResource("clojure/lang/RT.class");
+      if (rt != null) {
+        final String path = rt.toString();
+        if (path.startsWith("jar:") && path.contains("!/")) {
+          urls.add(new URL(path.substring("jar:".length(), path.indexOf("!/"))));
+        } else if (path.endsWith("clojure/lang/RT.class")) {
+          urls.add(new URL(path.substring(0, path.length() - "clojure/lang/RT.class".length())));
+        }
+      }
+    }
+    urls.addAll(Arrays.asList(LoadClojure.findClojureJarUrls(jarUrl)));
+    return urls.toArray(new URL[urls.size()]);
+  }
+
+  public int size () {
+    return runtimes.length;
+  }
+
+  public ClojureRuntime getRuntime (int index) {
+    return runtimes[index];
+  }
+
+  /**
+   * Returns the index of the runtime to use for the given tenant,
+   * or of the runtime with the fewest pending evaluations if {@code null}.
+   */
+  public int indexFor (Object tenant) {
+    if (tenant != null) {
+      return Math.floorMod(tenant.hashCode(), runtimes.length);
+    }
+    int best = 0;
+    int fewest = Integer.MAX_VALUE;
+    for (int i = 0; i < pending.length; i++) {
+      final int n = pending[i].get();
+      if (n < fewest) {
+        best = i;
+        fewest = n;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Evaluates a function of a runtime on that runtime's worker thread.
+   */
+  public <T> Future<T> submit (Object tenant, final Function<T> function) {
+    final int index = indexFor(tenant);
+    final ClojureRuntime runtime = runtimes[index];
+    final AtomicInteger count = pending[index];
+    count.incrementAndGet();
+    try {
+      return workers[index].submit(new Callable<T>() { @Override public T call() throws Exception {
+        try {
+          return function.apply(runtime);
+        } finally {
+          count.decrementAndGet();
+        }
+      }});
+    } catch (RuntimeException ex) {
+      count.decrementAndGet();
+      throw ex;
+    }
+  }
+
+  /**
+   * Evaluates a string as by {@code load-string} on the runtime for the tenant.
+   * @param tenant an optional object whose hash code selects the runtime, or {@code null}
+   * @param forms a String containing clojure expressions to evaluate
+   * @return the future value of the last expression in the string
+   */
+  public Future<Object> submit (Object tenant, final String forms) {
+    return submit(tenant, new Function<Object>() {
+      @Override public Object apply(ClojureRuntime runtime) throws Exception {
+        return runtime.loadString(forms);
+      }});
+  }
+
+  public Future<Object> submit (String forms) {
+    return submit(null, forms);
+  }
+
+  /**
+   * Evaluates a string on the runtime for the tenant and waits for its value.
+   * @throws whatever the evaluated form throws.
+   */
+  public Object loadString (Object tenant, String forms) throws Exception {
+    try {
+      return submit(tenant, forms).get();
+    } catch (ExecutionException ex) {
+      throw ClojureRuntime.rethrow(ex.getCause());
+    }
+  }
+
+  public Object loadString (String forms) throws Exception {
+    return loadString(null, forms);
+  }
+
+  /**
+   * Stops the worker threads, waiting for pending evaluations, and closes the class loaders.
+   */
+  @Override
+  public void close () throws IOException {
+    for (ExecutorService worker : workers) {
+      worker.shutdown();
+    }
+    try {
+      for (ExecutorService worker : workers) {
+        worker.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while closing the pool");
+    }
+    for (ClojureRuntime runtime : runtimes) {
+      ((URLClassLoader) runtime.getClassLoader()).close();
+    }
+  }
+
+  /**
+   * A computation using a Clojure runtime.
+   */
+  public interface Function<T> {
+    T apply(ClojureRuntime runtime) throws Exception;
+  }
+}
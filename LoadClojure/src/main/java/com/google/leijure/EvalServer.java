@@ -0,0 +1,406 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ProtocolFamily;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A local server that evaluates Clojure code sent over a socket, so that tools that are not
+ * on the JVM can use a warm Clojure runtime without paying for JVM and Clojure startup each time.
+ * It listens on a loopback TCP port, or a Unix-domain socket on JDK 16 or later.
+ * <p>
+ * Each request is a frame: a 4-byte big-endian length of the rest of the frame,
+ * an 8-byte request ID chosen by the client, and the code to evaluate in UTF-8.
+ * Each response is a frame: a 4-byte length, the 8-byte ID of the request,
+ * a status byte, 0 for success or 1 for failure, then in UTF-8 either the value
+ * of the last form, as printed by {@code pr-str}, or the exception thrown.
+ * Clients may send many requests without waiting for responses, which may come in any order.
+ * <p>
+ * A single thread multiplexes all connections with a {@link Selector},
+ * and a pool of workers evaluates the requests.
+ * For backpressure, the server stops reading from a connection that has
+ * {@code maxPending} requests being evaluated or waiting to be, until some are answered;
+ * it closes connections that send frames longer than {@code maxFrameSize},
+ * or fail in any other way, without disturbing the others.
+ */
+public class EvalServer implements Closeable {
+  private static final int HEADER = 4;
+  private static final int ID = 8;
+  /** The initial size of the input buffer of a connection, to which it shrinks after large frames. */
+  private static final int INPUT_SIZE = 8192;
+
+  private static final Logger logger = Logger.getLogger(EvalServer.class.getName());
+
+  public static final int DEFAULT_MAX_PENDING = 64;
+  public static final int DEFAULT_MAX_FRAME_SIZE = 16 << 20;
+
+  private static final String EVAL_SOURCE =
+    "(fn [s] (pr-str (load-string s)))";
+
+  private static final MethodHandle openWithFamily;
+  private static final MethodHandle unixAddress;
+  private static final ProtocolFamily unixFamily;
+
+  static {
+    MethodHandle o = null, u = null;
+    ProtocolFamily f = null;
+    try {
+      f = StandardProtocolFamily.valueOf("UNIX");
+      MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+      o = lookup.findStatic(ServerSocketChannel.class, "open",
+                            MethodType.methodType(ServerSocketChannel.class, ProtocolFamily.class));
+      Class<?> addressClass = Class.forName("java.net.UnixDomainSocketAddress");
+      u = lookup.findStatic(addressClass, "of", MethodType.methodType(addressClass, Path.class))
+        .asType(MethodType.methodType(SocketAddress.class, Path.class));
+    } catch (Throwable t) {
+      o = u = null;
+      f = null;
+    }
+    openWithFamily = o;
+    unixAddress = u;
+    unixFamily = f;
+  }
+
+  private final ClojureRuntime runtime;
+  private final Object evalFunction;
+  private final ServerSocketChannel server;
+  private final Path socketFile;
+  private final Selector selector;
+  private final ExecutorService workers;
+  private final int maxPending;
+  private final int maxFrameSize;
+  private final Queue<Connection> updates = new ConcurrentLinkedQueue<Connection>();
+  private final Thread thread;
+  private volatile boolean open = true;
+
+  private EvalServer(ClojureRuntime runtime, ServerSocketChannel server, Path socketFile,
+                     int workers, int maxPending, int maxFrameSize) throws Exception {
+    if (workers <= 0 || maxPending <= 0 || maxFrameSize < ID) {
+      throw new IllegalArgumentException("Invalid server limits");
+    }
+    this.runtime = runtime;
+    this.evalFunction = runtime.loadString(EVAL_SOURCE);
+    this.server = server;
+    this.socketFile = socketFile;
+    this.maxPending = maxPending;
+    this.maxFrameSize = maxFrameSize;
+    this.selector = Selector.open();
+    final AtomicInteger count = new AtomicInteger();
+    this.workers = Executors.newFixedThreadPool(workers, task -> {
+      final Thread worker = new Thread(task, "EvalServer-worker-" + count.getAndIncrement());
+      worker.setDaemon(true);
+      return worker;
+    });
+    server.configureBlocking(false);
+    server.register(selector, SelectionKey.OP_ACCEPT);
+    this.thread = new Thread(new Runnable() { @Override public void run() {
+      serve();
+    }}, "EvalServer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /**
+   * Starts a server on a loopback TCP port.
+   * @param runtime the runtime in which to evaluate code
+   * @param port the port, or 0 for any free port, see {@link #getLocalAddress}
+   * @param workers the number of threads evaluating requests
+   * @param maxPending the maximum number of requests of one connection evaluated at once
+   * @param maxFrameSize the maximum size of a request frame, after the length
+   */
+  public static EvalServer loopback (ClojureRuntime runtime, int port,
+                                     int workers, int maxPending, int maxFrameSize)
+    throws Exception {
+    final ServerSocketChannel server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    return new EvalServer(runtime, server, null, workers, maxPending, maxFrameSize);
+  }
+
+  /**
+   * Starts a server on a Unix-domain socket, only accessible to local processes
+   * allowed by the permissions of the socket file, which must not exist yet.
+   * @throws UnsupportedOperationException before JDK 16.
+   * @see #loopback
+   */
+  public static EvalServer unix (ClojureRuntime runtime, Path socketFile,
+                                 int workers, int maxPending, int maxFrameSize)
+    throws Exception {
+    if (unixAddress == null) {
+      throw new UnsupportedOperationException("Unix-domain sockets need JDK 16 or later");
+    }
+    final ServerSocketChannel server;
+    try {
+      server = (ServerSocketChannel) openWithFamily.invokeExact(unixFamily);
+      server.bind((SocketAddress) unixAddress.invokeExact(socketFile));
+    } catch (Throwable t) {
+      throw ClojureRuntime.rethrow(t);
+    }
+    return new EvalServer(runtime, server, socketFile, workers, maxPending, maxFrameSize);
+  }
+
+  /**
+   * Starts a server with one worker per processor, at most {@link #DEFAULT_MAX_PENDING}
+   * pending requests per connection and frames of at most {@link #DEFAULT_MAX_FRAME_SIZE} bytes.
+   * @param address a port number for {@link #loopback}, or else a path for {@link #unix}
+   */
+  public static EvalServer start (ClojureRuntime runtime, String address) throws Exception {
+    final int workers = Runtime.getRuntime().availableProcessors();
+    if (address.matches("[0-9]+")) {
+      return loopback(runtime, Integer.parseInt(address),
+                      workers, DEFAULT_MAX_PENDING, DEFAULT_MAX_FRAME_SIZE);
+    }
+    return unix(runtime, Paths.get(address), workers, DEFAULT_MAX_PENDING, DEFAULT_MAX_FRAME_SIZE);
+  }
+
+  /**
+   * Returns true if {@link #unix} is supported by this JDK.
+   */
+  public static boolean isUnixSupported () {
+    return unixAddress != null;
+  }
+
+  public SocketAddress getLocalAddress () throws IOException {
+    return server.getLocalAddress();
+  }
+
+  /**
+   * The state of a client connection.
+   * Only the server thread reads or changes it, but for {@code pending} and {@code output}.
+   */
+  private final class Connection {
+    final SocketChannel channel;
+    final SelectionKey key;
+    ByteBuffer input = ByteBuffer.allocate(INPUT_SIZE);
+    final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<ByteBuffer>();
+    final AtomicInteger pending = new AtomicInteger();
+    boolean eof;
+
+    Connection(SocketChannel channel) throws IOException {
+      this.channel = channel;
+      channel.configureBlocking(false);
+      this.key = channel.register(selector, SelectionKey.OP_READ, this);
+    }
+  }
+
+  private void serve () {
+    try {
+      while (open) {
+        selector.select();
+        Connection updated;
+        while ((updated = updates.poll()) != null) {
+          try {
+            update(updated);
+          } catch (IOException | RuntimeException ex) {
+            close(updated.key, ex);
+          }
+        }
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          final SelectionKey key = keys.next();
+          keys.remove();
+          if (key.isValid() && key.isAcceptable()) {
+            accept();
+            continue;
+          }
+          try {
+            if (!key.isValid()) {
+              continue;
+            }
+            final Connection connection = (Connection) key.attachment();
+            if (key.isReadable()) {
+              read(connection);
+            }
+            if (key.isValid() && key.isWritable()) {
+              write(connection);
+            }
+          } catch (IOException | RuntimeException ex) {
+            // Including a CancelledKeyException, if the client closed the connection meanwhile.
+            close(key, ex);
+          }
+        }
+      }
+    } catch (IOException | RuntimeException ex) {
+      if (open) {
+        logger.log(Level.SEVERE, "EvalServer stopped serving", ex);
+      }
+    }
+  }
+
+  private void accept () {
+    SocketChannel channel = null;
+    try {
+      channel = server.accept();
+      if (channel != null) {
+        new Connection(channel);
+      }
+    } catch (IOException ex) {
+      logger.log(Level.WARNING, "EvalServer failed to accept a connection", ex);
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException e) { ; }
+      }
+    }
+  }
+
+  /**
+   * Closes a connection that failed, leaving the others alone.
+   */
+  private static void close (SelectionKey key, Exception ex) {
+    logger.log(Level.FINE, "EvalServer closing a connection", ex);
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) { ; }
+  }
+
+  private void read (Connection c) throws IOException {
+    if (c.channel.read(c.input) < 0) {
+      c.eof = true;
+    }
+    parse(c);
+    update(c);
+  }
+
+  /**
+   * Submits the complete frames in the input buffer, as long as the connection may have more.
+   */
+  private void parse (Connection c) throws IOException {
+    final ByteBuffer in = c.input;
+    in.flip();
+    while (c.pending.get() < maxPending && in.remaining() >= HEADER) {
+      final int length = in.getInt(in.position());
+      if (length < ID || length > maxFrameSize) {
+        throw new IOException("Invalid frame length " + length);
+      }
+      if (in.remaining() < HEADER + length) {
+        if (in.capacity() < HEADER + length) {
+          c.input = ByteBuffer.allocate(HEADER + length).put(in);
+          return;
+        }
+        break;
+      }
+      in.getInt();
+      final long id = in.getLong();
+      final byte[] source = new byte[length - ID];
+      in.get(source);
+      submit(c, id, new String(source, StandardCharsets.UTF_8));
+    }
+    in.compact();
+    // Once a large frame is served, release its room, unless the next frame needs it too.
+    if (in.capacity() > INPUT_SIZE && in.position() <= INPUT_SIZE
+        && (in.position() < HEADER || in.getInt(0) <= INPUT_SIZE - HEADER)) {
+      in.flip();
+      c.input = ByteBuffer.allocate(INPUT_SIZE).put(in);
+    }
+  }
+
+  private void submit (final Connection c, final long id, final String source) {
+    c.pending.incrementAndGet();
+    workers.execute(new Runnable() { @Override public void run() {
+      byte status = 0;
+      String result;
+      try {
+        result = (String) runtime.invoke(evalFunction, source);
+      } catch (Throwable t) {
+        status = 1;
+        result = String.valueOf(t);
+      }
+      final byte[] bytes = result.getBytes(StandardCharsets.UTF_8);
+      final ByteBuffer response = ByteBuffer.allocate(HEADER + ID + 1 + bytes.length);
+      response.putInt(ID + 1 + bytes.length).putLong(id).put(status).put(bytes).flip();
+      c.output.add(response);
+      c.pending.decrementAndGet();
+      updates.add(c);
+      selector.wakeup();
+    }});
+  }
+
+  private void write (Connection c) throws IOException {
+    ByteBuffer buffer;
+    while ((buffer = c.output.peek()) != null) {
+      c.channel.write(buffer);
+      if (buffer.hasRemaining()) {
+        break;
+      }
+      c.output.poll();
+    }
+    update(c);
+  }
+
+  /**
+   * Resumes parsing if there is room for more requests,
+   * then selects the operations the connection is ready for, or closes it when done.
+   */
+  private void update (Connection c) throws IOException {
+    if (!c.key.isValid()) {
+      return;
+    }
+    if (c.pending.get() < maxPending && c.input.position() >= HEADER) {
+      parse(c);
+    }
+    if (c.eof && c.pending.get() == 0 && c.output.isEmpty()) {
+      c.key.cancel();
+      c.channel.close();
+      return;
+    }
+    int ops = 0;
+    if (!c.eof && c.pending.get() < maxPending) {
+      ops |= SelectionKey.OP_READ;
+    }
+    if (!c.output.isEmpty()) {
+      ops |= SelectionKey.OP_WRITE;
+    }
+    c.key.interestOps(ops);
+  }
+
+  /**
+   * Stops accepting connections and evaluating requests, and closes all connections.
+   */
+  @Override
+  public void close () throws IOException {
+    open = false;
+    selector.wakeup();
+    try {
+      thread.join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    workers.shutdownNow();
+    for (SelectionKey key : selector.keys()) {
+      key.channel().close();
+    }
+    selector.close();
+    if (socketFile != null) {
+      Files.deleteIfExists(socketFile);
+    }
+  }
+}
@@ -5,73 +5,366 @@
 package com.google.leijure;
 
 import java.io.File;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.invoke.MethodHandle;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Map;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Stream;
 
 /**
  * Trivial class to load and use Clojure in a Java application that doesn't include it by default.
+ * The static methods use a single global {@link ClojureRuntime};
+ * see {@link ClojureRuntimePool} for isolated runtimes.
  */
 public class LoadClojure {
-  private static ClassLoader loader;
-  private static Class symbolClass;
-  private static Class varClass;
-  private static Class ifnClass;
-  private static Method symbolInternMethod;
-  private static Method symbolGetNamespace;
-  private static Method symbolGetName;
-  private static Method varInternMethod;
-  private static Method ifnInvoke1Method;
-  private static Object loadStringFunction;
-
-  private static final Object[] nullargs = new Object[] { };
-
-  /**
-   * Returns the clojure Symbol with specified name.
-   * @param qualifiedName the String holding the qualified, e.g. {@code "clojure.core/read-string"}
-   * @return the interned Symbol (actually of type {@code clojure.lang.Symbol})
-   * or {@code null} if an exception occured
-   */
-  private static final Object intern (String qualifiedName) {
-    final Object[] args = new Object[] { qualifiedName };
+  private static volatile ClojureRuntime runtime;
+
+  /**
+   * Returns the global Clojure runtime, once initialized by the constructor.
+   */
+  public static ClojureRuntime getRuntime () {
+    return runtime;
+  }
+
+  /**
+   * The method handles of the global runtime, in static final fields,
+   * that the JIT trusts as constants, so that calls through them inline like direct calls.
+   * They are initialized on first use, after the runtime, which never changes once initialized.
+   */
+  private static final class Handles {
+    static final MethodHandle INVOKE_0 = runtime.invoker(0);
+    static final MethodHandle INVOKE_1 = runtime.invoker(1);
+    static final MethodHandle INVOKE_2 = runtime.invoker(2);
+    static final MethodHandle INVOKE_3 = runtime.invoker(3);
+    static final MethodHandle INVOKE_4 = runtime.invoker(4);
+  }
+
+  /**
+   * Enters the global runtime, as by {@link ClojureRuntime#enter}, once initialized.
+   */
+  private static ClassLoader enter () {
+    final ClojureRuntime r = runtime;
+    if (r == null) {
+      throw new IllegalStateException("LoadClojure is not initialized");
+    }
+    return r.enter();
+  }
+
+  /**
+   * Calls a Clojure function without arguments, as by {@code IFn.invoke()}.
+   * @param fn the function (actually of type {@code clojure.lang.IFn})
+   * @return the value returned by the function
+   * @throws whatever the function throws.
+   */
+  public static Object invoke (Object fn) throws Exception {
+    final ClassLoader previous = enter();
+    try {
+      return (Object) Handles.INVOKE_0.invokeExact(fn);
+    } catch (Throwable t) {
+      throw ClojureRuntime.rethrow(t);
+    } finally {
+      ClojureRuntime.exit(previous);
+    }
+  }
+
+  /**
+   * Calls a Clojure function with one argument, as by {@code IFn.invoke(Object)}.
+   * @see #invoke(Object)
+   */
+  public static Object invoke (Object fn, Object a) throws Exception {
+    final ClassLoader previous = enter();
+    try {
+      return (Object) Handles.INVOKE_1.invokeExact(fn, a);
+    } catch (Throwable t) {
+      throw ClojureRuntime.rethrow(t);
+    } finally {
+      ClojureRuntime.exit(previous);
+    }
+  }
+
+  /**
+   * Calls a Clojure function with two arguments, as by {@code IFn.invoke(Object, Object)}.
+   * @see #invoke(Object)
+   */
+  public static Object invoke (Object fn, Object a, Object b) throws Exception {
+    final ClassLoader previous = enter();
     try {
-      return symbolInternMethod.invoke(null, qualifiedName);
-    } catch (Exception ex) {
-      return null;
+      return (Object) Handles.INVOKE_2.invokeExact(fn, a, b);
+    } catch (Throwable t) {
+      throw ClojureRuntime.rethrow(t);
+    } finally {
+      ClojureRuntime.exit(previous);
     }
   }
 
   /**
-   * Returns the clojure Var object with specified name.
-   * @param qualifiedName the String holding the qualified, e.g. {@code "clojure.core/println"}
-   * @return the interned Var (actually of type {@code clojure.lang.Var})
-   * or {@code null} if an exception occurred.
+   * Calls a Clojure function with three arguments.
+   * @see #invoke(Object)
    */
-  private static final Object var (String qualifiedName) {
+  public static Object invoke (Object fn, Object a, Object b, Object c) throws Exception {
+    final ClassLoader previous = enter();
     try {
-      final Object sym = intern(qualifiedName);
-      final String ns = (String) symbolGetNamespace.invoke(sym, nullargs);
-      final String name = (String) symbolGetName.invoke(sym, nullargs);
-      return varInternMethod.invoke(null, intern(ns), intern(name));
-    } catch (Exception ex) {
-      ex.printStackTrace();
-      return null;
+      return (Object) Handles.INVOKE_3.invokeExact(fn, a, b, c);
+    } catch (Throwable t) {
+      throw ClojureRuntime.rethrow(t);
+    } finally {
+      ClojureRuntime.exit(previous);
+    }
+  }
+
+  /**
+   * Calls a Clojure function with four arguments.
+   * @see #invoke(Object)
+   */
+  public static Object invoke (Object fn, Object a, Object b, Object c, Object d)
+    throws Exception {
+    final ClassLoader previous = enter();
+    try {
+      return (Object) Handles.INVOKE_4.invokeExact(fn, a, b, c, d);
+    } catch (Throwable t) {
+      throw ClojureRuntime.rethrow(t);
+    } finally {
+      ClojureRuntime.exit(previous);
+    }
+  }
+
+  /**
+   * Evaluates a string as a sequence of Clojure expressions as by {@code load-string},
+   * measured by {@link ClojureRuntime#evaluate} if enabled by {@link LoadClojureMetrics}.
+   * @param forms a String containing clojure expressions to evaluate
+   * @return the value of the last expression in the string
+   * @throws whatever the evaluated form throws.
+   */
+  public static final Object loadString (String forms) throws Exception {
+    if (LoadClojureMetrics.enabled || LoadClojureMetrics.disposable) {
+      return runtime.evaluate(forms, LoadClojureMetrics.disposable).getValue();
+    }
+    return runtime.loadString(forms);
+  }
+
+  /**
+   * Evaluates the Clojure expressions read from a Reader one at a time, as by {@code load-reader}.
+   * @param reader the Reader from which to read the forms, best buffered.
+   * @param sourcePath the path of the source, for error messages, e.g. {@code "my/app/rules.clj"}
+   * @return the value of the last expression read
+   * @throws whatever the evaluated form throws, with the source path and line.
+   * @see ClojureRuntime#loadReader
+   */
+  public static Object loadReader (Reader reader, String sourcePath) throws Exception {
+    return runtime.loadReader(reader, sourcePath, sourcePath.substring(sourcePath.lastIndexOf('/') + 1));
+  }
+
+  public static Object loadReader (Reader reader) throws Exception {
+    return loadReader(reader, "NO_SOURCE_FILE");
+  }
+
+  /**
+   * Evaluates the Clojure expressions in a UTF-8 file one at a time, as by {@code load-file},
+   * through a buffered reader, so that the file is never all in memory.
+   * @param file the path of the file
+   * @return the value of the last expression in the file
+   * @throws whatever the evaluated form throws, with the file and line.
+   */
+  public static Object loadFile (Path file) throws Exception {
+    try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return runtime.loadReader(reader, file.toString(), file.getFileName().toString());
+    }
+  }
+
+  /**
+   * Evaluates the Clojure expressions in a UTF-8 resource one at a time,
+   * found by the class loader of Clojure, e.g. on the class path.
+   * @param name the name of the resource, e.g. {@code "my/app/rules.clj"}
+   * @return the value of the last expression in the resource
+   * @throws FileNotFoundException if there is no such resource,
+   * or whatever the evaluated form throws, with the resource name and line.
+   */
+  public static Object loadResource (String name) throws Exception {
+    final InputStream stream = runtime.getClassLoader().getResourceAsStream(name);
+    if (stream == null) {
+      throw new FileNotFoundException("Resource not found: " + name);
     }
+    try (Reader reader = new InputStreamReader(stream, StandardCharsets.UTF_8)) {
+      return loadReader(reader, name);
+    }
+  }
+
+  /**
+   * Compiles a string as a sequence of Clojure expressions into a function of no arguments
+   * that evaluates them each time it is called, as by {@code (fn [] (do forms...))}.
+   * Unlike with {@link #loadString}, all the forms are compiled before any is evaluated,
+   * so a form may not use definitions or namespace changes made by a previous one in the string.
+   * If the cache is enabled with {@link #setCacheSize}, the function is only compiled
+   * the first time a given string is used in a given current namespace, until evicted:
+   * symbols resolve and {@code def}s intern in the namespace current when the forms are compiled,
+   * so the same string compiles into a different function in each namespace.
+   * @param forms a String containing clojure expressions to compile
+   * @return the function (actually of type {@code clojure.lang.IFn})
+   * @throws whatever reading or compiling the forms throws.
+   * @see ClojureRuntime#compileString
+   */
+  public static Object compileString (String forms) throws Exception {
+    final FormCache c = cache;
+    if (c == null) {
+      return runtime.compileString(forms);
+    }
+    final FormKey key = new FormKey(runtime.currentNamespace(), forms);
+    Object fn = c.get(key);
+    if (fn == null) {
+      fn = runtime.compileString(forms);
+      c.put(key, fn);
+    }
+    return fn;
   }
 
   /**
-   * Evaluates a string as a sequence of Clojure expressions as by {@code load-string}
+   * Evaluates a string as a sequence of Clojure expressions compiled by {@link #compileString},
+   * which with the cache enabled saves reading and compiling strings that were seen before.
    * @param forms a String containing clojure expressions to evaluate
    * @return the value of the last expression in the string
-   * @throws whatever the evaluated form throws encapsulated in a InvocationTargetException.
+   * @throws whatever the evaluated form throws.
+   */
+  public static Object loadCachedString (String forms) throws Exception {
+    return invoke(compileString(forms));
+  }
+
+  /**
+   * The key of a compiled function in the cache: its source string,
+   * and the namespace in which it was compiled.
+   */
+  private static final class FormKey {
+    private final Object namespace;
+    private final String forms;
+
+    FormKey(Object namespace, String forms) {
+      this.namespace = namespace;
+      this.forms = forms;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof FormKey)) {
+        return false;
+      }
+      final FormKey k = (FormKey) o;
+      return namespace == k.namespace && forms.equals(k.forms);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(namespace) + forms.hashCode();
+    }
+  }
+
+  /**
+   * Least-recently-used cache from source strings and namespaces to compiled functions.
+   * Each function is compiled by its own {@code eval}, hence in its own Clojure
+   * {@code DynamicClassLoader}: once evicted and no longer used,
+   * it can be garbage-collected along with its classes and their class loader.
+   */
+  private static final class FormCache extends LinkedHashMap<FormKey, Object> {
+    private static final long serialVersionUID = 1L;
+
+    private final int maxSize;
+    private long hits, misses, evictions;
+
+    FormCache(int maxSize) {
+      super(16, 0.75f, true);
+      this.maxSize = maxSize;
+    }
+
+    synchronized Object get(FormKey key) {
+      final Object fn = super.get(key);
+      if (fn == null) {
+        misses++;
+      } else {
+        hits++;
+      }
+      return fn;
+    }
+
+    @Override
+    public synchronized Object put(FormKey key, Object fn) {
+      return super.put(key, fn);
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<FormKey, Object> eldest) {
+      if (size() > maxSize) {
+        evictions++;
+        return true;
+      }
+      return false;
+    }
+
+    synchronized CacheStats stats() {
+      return new CacheStats(hits, misses, evictions, size(), maxSize);
+    }
+  }
+
+  private static volatile FormCache cache;
+
+  /**
+   * Enables the cache of {@link #compileString} with the given maximum number of entries,
+   * discarding any previous cache, or disables it if {@code maxSize} is 0, the default.
+   */
+  public static void setCacheSize (int maxSize) {
+    if (maxSize < 0) {
+      throw new IllegalArgumentException("Negative cache size: " + maxSize);
+    }
+    cache = maxSize == 0 ? null : new FormCache(maxSize);
+  }
+
+  /**
+   * Returns the statistics of the cache of {@link #compileString}, or {@code null} if disabled.
    */
-  public static final Object loadString (String forms)
-    throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-    return ifnInvoke1Method.invoke(loadStringFunction, forms);
+  public static CacheStats getCacheStats () {
+    final FormCache c = cache;
+    return c == null ? null : c.stats();
+  }
+
+  /**
+   * Statistics of the cache of compiled forms, as of when they were taken.
+   */
+  public static final class CacheStats {
+    private final long hits, misses, evictions;
+    private final int size, maxSize;
+
+    CacheStats(long hits, long misses, long evictions, int size, int maxSize) {
+      this.hits = hits;
+      this.misses = misses;
+      this.evictions = evictions;
+      this.size = size;
+      this.maxSize = maxSize;
+    }
+
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+    public long getEvictions() { return evictions; }
+    public int getSize() { return size; }
+    public int getMaxSize() { return maxSize; }
+
+    @Override
+    public String toString() {
+      return "CacheStats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions
+        + ", size=" + size + ", maxSize=" + maxSize + "}";
+    }
   }
 
   /**
@@ -79,10 +372,9 @@ public class LoadClojure {
    * @param forms an {@code Iterable<String>} each containing clojure expressions
    * to evaluate as by {@link #loadString}
    * @return the value of the last expression in the last string, or {@code null}
-   * @throws whatever the evaluated form throws encapsulated in a InvocationTargetException.
+   * @throws whatever the evaluated form throws.
    */
-  public static Object loadStrings(Iterable<String> forms)
-    throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+  public static Object loadStrings(Iterable<String> forms) throws Exception {
     Object result = null;
     for (String f : forms) {
       result = loadString(f);
@@ -90,12 +382,66 @@ public class LoadClojure {
     return result;
   }
 
+  /**
+   * Evaluates many independent strings in parallel, in tasks of {@code chunkSize} strings,
+   * with the Clojure thread bindings of the caller.
+   * @param forms the strings containing clojure expressions to evaluate
+   * @param executor the executor on which to evaluate them
+   * @param chunkSize the maximum number of strings evaluated by each task
+   * @return the result of each string, in order, value or exception
+   * @see ClojureRuntime#loadAll
+   */
+  public static List<ClojureRuntime.Result> loadAll(Iterable<String> forms,
+                                                   Executor executor, int chunkSize)
+    throws InterruptedException {
+    return runtime.loadAll(forms, executor, chunkSize);
+  }
+
+  /**
+   * Evaluates many independent strings in parallel on the common fork/join pool,
+   * one per task.
+   * @see #loadAll(Iterable, Executor, int)
+   */
+  public static List<ClojureRuntime.Result> loadAll(Iterable<String> forms)
+    throws InterruptedException {
+    return runtime.loadAll(forms, ForkJoinPool.commonPool(), 1);
+  }
+
+  /**
+   * Evaluates many independent strings from a stream in parallel.
+   * @see #loadAll(Iterable, Executor, int)
+   */
+  public static List<ClojureRuntime.Result> loadAll(Stream<String> forms,
+                                                   Executor executor, int chunkSize)
+    throws InterruptedException {
+    return runtime.loadAll(forms, executor, chunkSize);
+  }
+
+  /**
+   * Evaluates many independent strings from a stream in parallel on the common fork/join pool,
+   * one per task.
+   * @see #loadAll(Iterable, Executor, int)
+   */
+  public static List<ClojureRuntime.Result> loadAll(Stream<String> forms)
+    throws InterruptedException {
+    return runtime.loadAll(forms, ForkJoinPool.commonPool(), 1);
+  }
+
+  /**
+   * Returns an implementation of a Java interface whose methods call the Clojure functions
+   * of the same name in a namespace.
+   * @see ClojureRuntime#bind
+   */
+  public static <T> T bind(Class<T> iface, String namespace) throws Exception {
+    return runtime.bind(iface, namespace);
+  }
+
   /**
    * Computes a list of URLs where to look for the clojure jar.
    * @param jarURL an optional jar URL to override default locations.
    * @return a list of URLs.
    */
-  private static URL[] findClojureJarUrls (URL jarUrl) {
+  static URL[] findClojureJarUrls (URL jarUrl) {
     final LinkedList<URL> urls = new LinkedList<URL>();
     try {
       urls.add(jarUrl);
@@ -119,7 +465,7 @@ public class LoadClojure {
   }
 
   private static Boolean isInitialized () {
-    return loadStringFunction != null;
+    return runtime != null;
   }
 
   /**
@@ -140,10 +486,15 @@ public class LoadClojure {
    * @param jarUrl an optional URL where to look for the clojure jar.
    * @return a LoadClojure placeholder object on which to invoke {@link #loadString}.
    */
-  @SuppressWarnings("unchecked")
   public LoadClojure(URL jarUrl) throws Exception {
+    initialize(jarUrl);
+  }
+
+  private static synchronized void initialize(URL jarUrl) throws Exception {
     if (!isInitialized()) { // only initialize once
       // if Clojure is not present, load it from the proper jar URL
+      ClassLoader loader;
+      boolean isolated = false;
       try {
         // initialize the Clojure runtime if present
         loader = Thread.currentThread().getContextClassLoader();
@@ -152,27 +503,51 @@ public class LoadClojure {
         // if not present, find it and retry
         URL[] urls = findClojureJarUrls(jarUrl);
         loader = new URLClassLoader(urls);
+        isolated = true;
         // Clojure needs this. See: http://dev.clojure.org/jira/browse/CLJ-260
         Thread.currentThread().setContextClassLoader(loader);
-        Class.forName("clojure.lang.RT", true, loader);
       }
 
-      // Now that Clojure is loaded, get references to its classes and methods
-      symbolClass = Class.forName("clojure.lang.Symbol", true, loader);
-      varClass = Class.forName("clojure.lang.Var", true, loader);
-      ifnClass = Class.forName("clojure.lang.IFn", true, loader);
-
-      symbolInternMethod = symbolClass.getMethod("intern", String.class);
-      symbolGetNamespace = symbolClass.getMethod("getNamespace");
-      symbolGetName = symbolClass.getMethod("getName");
-      varInternMethod = varClass.getMethod("intern", symbolClass, symbolClass);
-      ifnInvoke1Method = ifnClass.getMethod("invoke", Object.class);
+      // Now that Clojure is found, get references to its classes and methods
+      runtime = new ClojureRuntime(loader, isolated);
+    }
+  }
 
-      loadStringFunction = var("clojure.core/load-string");
+  /**
+   * Starts initializing the LoadClojure class in a background thread,
+   * so that the caller can do something else while {@code clojure.core} loads,
+   * which takes seconds.
+   * As with the constructor, subsequent calls are no-op and their arguments are ignored.
+   * If Clojure is loaded from a jar rather than the context class loader,
+   * the latter is not changed: the runtime sets it during each call instead.
+   * @param jarUrl an optional URL where to look for the clojure jar.
+   * @return a future LoadClojure placeholder object, once initialized.
+   */
+  public static CompletableFuture<LoadClojure> initAsync (final URL jarUrl) {
+    final CompletableFuture<LoadClojure> future = new CompletableFuture<LoadClojure>();
+    if (isInitialized()) {
+      try {
+        future.complete(new LoadClojure(jarUrl));
+      } catch (Exception ex) {
+        future.completeExceptionally(ex);
+      }
+      return future;
     }
+    final Thread thread = new Thread(new Runnable() { @Override public void run() {
+      try {
+        future.complete(new LoadClojure(jarUrl));
+      } catch (Throwable t) {
+        future.completeExceptionally(t);
+      }
+    }}, "LoadClojure-init");
+    thread.setDaemon(true);
+    thread.start();
+    return future;
   }
 
   private static final String JAR_URL_OPTION = "--clojure_jar_url";
+  private static final String CDS_ARCHIVE_OPTION = "--cds_archive";
+  private static final String EVAL_SERVER_OPTION = "--eval_server";
 
   /**
    * Evaluates Clojure expressions specified at the command-line.
@@ -180,21 +555,52 @@ public class LoadClojure {
    * shows how to use LoadClojure.
    * @param args the command-line arguments, which may optionally start with
    * the argument <code>--clojure_jar_url &lt;url&gt;</code> to specify
-   * which jar to load Clojure from.
+   * which jar to load Clojure from, and/or the argument
+   * <code>--cds_archive &lt;file&gt;</code> to run in a new JVM
+   * that uses or else creates this class-data-sharing archive, see {@link ClassDataSharing},
+   * and/or the argument <code>--eval_server &lt;port-or-path&gt;</code> to keep serving
+   * evaluation requests on a loopback port or Unix-domain socket, see {@link EvalServer}.
    */
   public static void main(String[] args) throws Exception {
-    // Process command line argument: accept --clojure_jar_url <url> as only option.
+    // Process command line arguments: accept --clojure_jar_url <url>, --cds_archive <file>
+    // and --eval_server <port-or-path>.
     URL jarUrl = null;
+    String archive = null;
+    String server = null;
     LinkedList<String> arglist = new LinkedList<String>(Arrays.asList(args));
-    if (!arglist.isEmpty()) {
+    while (!arglist.isEmpty()) {
       if (arglist.get(0).equals(JAR_URL_OPTION)) {
         arglist.pop();
         assert(!arglist.isEmpty());
         jarUrl = new URL(arglist.pop());
       } else if (arglist.get(0).startsWith(JAR_URL_OPTION + "=")) {
         jarUrl = new URL(arglist.pop().substring(JAR_URL_OPTION.length() + 1));
+      } else if (arglist.get(0).equals(CDS_ARCHIVE_OPTION)) {
+        arglist.pop();
+        assert(!arglist.isEmpty());
+        archive = arglist.pop();
+      } else if (arglist.get(0).startsWith(CDS_ARCHIVE_OPTION + "=")) {
+        archive = arglist.pop().substring(CDS_ARCHIVE_OPTION.length() + 1);
+      } else if (arglist.get(0).equals(EVAL_SERVER_OPTION)) {
+        arglist.pop();
+        assert(!arglist.isEmpty());
+        server = arglist.pop();
+      } else if (arglist.get(0).startsWith(EVAL_SERVER_OPTION + "=")) {
+        server = arglist.pop().substring(EVAL_SERVER_OPTION.length() + 1);
+      } else {
+        break;
       }
     }
+    if (archive != null && !ClassDataSharing.isArchiveConfigured()) {
+      // Start over in a JVM with the archive, without the option.
+      if (jarUrl != null) {
+        arglist.push(JAR_URL_OPTION + "=" + jarUrl);
+      }
+      if (server != null) {
+        arglist.push(EVAL_SERVER_OPTION + "=" + server);
+      }
+      System.exit(ClassDataSharing.run(Paths.get(archive), LoadClojure.class.getName(), arglist));
+    }
     /* Now that we're ready to evaluate things,
        load all (remaining) arguments as clojure code using load-string,
        and return the last value.
@@ -207,5 +613,10 @@ public class LoadClojure {
        to achieve this configuration, for we here aim at minimalism.)
     */
     new LoadClojure(jarUrl).loadStrings(arglist);
+    if (server != null) {
+      // Then serve requests in the same runtime until killed.
+      EvalServer.start(runtime, server);
+      Thread.currentThread().join();
+    }
   }
 }
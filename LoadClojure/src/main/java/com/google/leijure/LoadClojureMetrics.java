@@ -0,0 +1,215 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.lang.management.ClassLoadingMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Optional metrics of the evaluations of {@link LoadClojure#loadString}:
+ * number of evaluations, failures and forms, time spent reading and compiling
+ * versus executing, and classes loaded by the JVM meanwhile, available through {@link #snapshot} and JMX
+ * once {@link #setMeasuring enabled}, along with the current size of Metaspace.
+ * Each evaluation is then measured by {@link ClojureRuntime#evaluate},
+ * which also tells the metrics of that evaluation alone.
+ * In {@link #setDisposing disposable} mode, each evaluation happens in a temporary namespace,
+ * removed afterwards, so that the classes it compiles can be unloaded once its value is unused.
+ * Both can be enabled at startup with the system property {@code leijure.clojure.metrics}
+ * set to {@code true} or {@code disposable}, which also registers the MXBean under {@link #OBJECT_NAME}.
+ */
+public final class LoadClojureMetrics implements LoadClojureMetricsMXBean {
+  public static final String METRICS_PROPERTY = "leijure.clojure.metrics";
+  public static final String OBJECT_NAME = "com.google.leijure:type=LoadClojureMetrics";
+
+  private static final LoadClojureMetrics INSTANCE = new LoadClojureMetrics();
+
+  private static final Logger logger = Logger.getLogger(LoadClojureMetrics.class.getName());
+
+  private static final ClassLoadingMXBean classLoading = ManagementFactory.getClassLoadingMXBean();
+
+  static volatile boolean enabled;
+  static volatile boolean disposable;
+
+  private static final LongAdder evaluations = new LongAdder();
+  private static final LongAdder failures = new LongAdder();
+  private static final LongAdder forms = new LongAdder();
+  private static final LongAdder readCompileNanos = new LongAdder();
+  private static final LongAdder executeNanos = new LongAdder();
+  private static final LongAdder jvmClassesLoaded = new LongAdder();
+
+  static {
+    String metrics = System.getProperty(METRICS_PROPERTY, "");
+    if (!metrics.isEmpty()) {
+      setMeasuring(metrics.equals("true") || metrics.equals("disposable"));
+      setDisposing(metrics.equals("disposable"));
+      try {
+        registerMBean();
+      } catch (JMException | RuntimeException ex) {
+        // Metrics are still available through snapshot(), only not through JMX.
+        logger.log(Level.WARNING, "Failed to register the MXBean " + OBJECT_NAME, ex);
+      }
+    }
+  }
+
+  private LoadClojureMetrics() {}
+
+  /**
+   * Registers the MXBean with the platform MBean server, if not already registered.
+   */
+  public static synchronized ObjectName registerMBean() throws JMException {
+    ObjectName name = new ObjectName(OBJECT_NAME);
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    if (!server.isRegistered(name)) {
+      server.registerMBean(INSTANCE, name);
+    }
+    return name;
+  }
+
+  public static LoadClojureMetricsMXBean getMXBean() {
+    return INSTANCE;
+  }
+
+  /**
+   * Enables or disables the measure of each evaluation by {@link LoadClojure#loadString}.
+   */
+  public static void setMeasuring(boolean enable) {
+    enabled = enable;
+  }
+
+  public static boolean isMeasuring() {
+    return enabled;
+  }
+
+  /**
+   * Enables or disables evaluating each string by {@link LoadClojure#loadString}
+   * in a temporary namespace, so that its definitions and classes don't outlive its value.
+   */
+  public static void setDisposing(boolean dispose) {
+    disposable = dispose;
+  }
+
+  public static boolean isDisposing() {
+    return disposable;
+  }
+
+  @Override public boolean isEnabled() { return enabled; }
+  @Override public void setEnabled(boolean enable) { setMeasuring(enable); }
+  @Override public boolean isDisposable() { return disposable; }
+  @Override public void setDisposable(boolean dispose) { setDisposing(dispose); }
+  @Override public long getEvaluations() { return evaluations.sum(); }
+  @Override public long getFailures() { return failures.sum(); }
+  @Override public long getForms() { return forms.sum(); }
+  @Override public long getReadCompileNanos() { return readCompileNanos.sum(); }
+  @Override public long getExecuteNanos() { return executeNanos.sum(); }
+  @Override public long getJvmClassesLoaded() { return jvmClassesLoaded.sum(); }
+  @Override public long getMetaspaceUsed() { return metaspaceUsed(); }
+  @Override public void reset() { resetCounters(); }
+
+  public static void resetCounters() {
+    evaluations.reset();
+    failures.reset();
+    forms.reset();
+    readCompileNanos.reset();
+    executeNanos.reset();
+    jvmClassesLoaded.reset();
+  }
+
+  /**
+   * Returns the bytes used in the Metaspace memory pool, or -1 if there is no such pool.
+   */
+  public static long metaspaceUsed() {
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getName().equals("Metaspace")) {
+        return pool.getUsage().getUsed();
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the total number of classes loaded by the JVM so far. */
+  static long totalLoadedClassCount() {
+    return classLoading.getTotalLoadedClassCount();
+  }
+
+  static void onEvaluation(ClojureRuntime.Evaluation evaluation) {
+    evaluations.increment();
+    if (evaluation.getException() != null) {
+      failures.increment();
+    }
+    forms.add(evaluation.getForms());
+    readCompileNanos.add(evaluation.getReadCompileNanos());
+    executeNanos.add(evaluation.getExecuteNanos());
+    jvmClassesLoaded.add(evaluation.getJvmClassesLoaded());
+  }
+
+  /**
+   * Returns the current value of the counters, and of Metaspace.
+   */
+  public static Snapshot snapshot() {
+    return new Snapshot(evaluations.sum(), failures.sum(), forms.sum(),
+                        readCompileNanos.sum(), executeNanos.sum(), jvmClassesLoaded.sum(),
+                        metaspaceUsed());
+  }
+
+  /**
+   * The value of the counters at some point in time.
+   * Counters are updated concurrently with the snapshot,
+   * so they may be slightly inconsistent with each other.
+   */
+  public static final class Snapshot {
+    private final long evaluations;
+    private final long failures;
+    private final long forms;
+    private final long readCompileNanos;
+    private final long executeNanos;
+    private final long jvmClassesLoaded;
+    private final long metaspaceUsed;
+
+    Snapshot(long evaluations, long failures, long forms, long readCompileNanos,
+             long executeNanos, long jvmClassesLoaded, long metaspaceUsed) {
+      this.evaluations = evaluations;
+      this.failures = failures;
+      this.forms = forms;
+      this.readCompileNanos = readCompileNanos;
+      this.executeNanos = executeNanos;
+      this.jvmClassesLoaded = jvmClassesLoaded;
+      this.metaspaceUsed = metaspaceUsed;
+    }
+
+    /** Number of strings evaluated. */
+    public long getEvaluations() { return evaluations; }
+    /** Number of evaluations that threw an exception. */
+    public long getFailures() { return failures; }
+    /** Number of top-level forms evaluated, over all strings. */
+    public long getForms() { return forms; }
+    /** Time spent reading, macroexpanding and compiling forms. */
+    public long getReadCompileNanos() { return readCompileNanos; }
+    /** Time spent executing compiled forms. */
+    public long getExecuteNanos() { return executeNanos; }
+    /**
+     * Classes loaded by the whole JVM during evaluations, an approximation of the classes
+     * that they generated, as it includes any loaded by other threads meanwhile.
+     */
+    public long getJvmClassesLoaded() { return jvmClassesLoaded; }
+    /** Bytes used in Metaspace when the snapshot was taken. */
+    public long getMetaspaceUsed() { return metaspaceUsed; }
+
+    @Override
+    public String toString() {
+      return "LoadClojureMetrics.Snapshot{evaluations=" + evaluations + ", failures=" + failures
+        + ", forms=" + forms + ", readCompileNanos=" + readCompileNanos
+        + ", executeNanos=" + executeNanos + ", jvmClassesLoaded=" + jvmClassesLoaded
+        + ", metaspaceUsed=" + metaspaceUsed + "}";
+    }
+  }
+}
@@ -0,0 +1,23 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+/**
+ * JMX view of {@link LoadClojureMetrics}.
+ */
+public interface LoadClojureMetricsMXBean {
+  public boolean isEnabled();
+  public void setEnabled(boolean enabled);
+  public boolean isDisposable();
+  public void setDisposable(boolean disposable);
+  public long getEvaluations();
+  public long getFailures();
+  public long getForms();
+  public long getReadCompileNanos();
+  public long getExecuteNanos();
+  public long getJvmClassesLoaded();
+  public long getMetaspaceUsed();
+  public void reset();
+}
@@ -0,0 +1,91 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+package com.google.leijure;
+
+import com.google.leijure.LoadClojure;
+
+import java.util.Comparator;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+/**
+ * Testing the implementation of Java interfaces by Clojure functions
+ */
+public class TestBind extends TestCase {
+    public interface Rules {
+        long add(long x, long y);
+        int add(int x, int y, int z);
+        String greet(String name);
+        boolean isLong(String s);
+        Object first(List<?> list);
+        void remember(Object x);
+        default String describe() { return "rules"; }
+    }
+
+    public void testBind () throws Exception {
+        new LoadClojure();
+        LoadClojure.loadString(
+            "(ns test-bind)"
+            + " (defn add ([x y] (+ x y)) ([x y z] (+ x y z)))"
+            + " (defn greet [name] (str \"Hello, \" name))"
+            + " (defn is-long [s] (> (count s) 3))"
+            + " (def first clojure.core/first)"
+            + " (def remembered (atom nil))"
+            + " (defn remember [x] (reset! remembered x))"
+            + " (in-ns 'user)");
+        Rules rules = LoadClojure.bind(Rules.class, "test-bind");
+        assertEquals(5L, rules.add(2L, 3L));
+        assertEquals(6, rules.add(1, 2, 3));
+        assertEquals("Hello, world", rules.greet("world"));
+        assertTrue(rules.isLong("long"));
+        assertFalse(rules.isLong("no"));
+        assertEquals("a", rules.first(java.util.Arrays.asList("a", "b")));
+        rules.remember("this");
+        assertEquals("this", LoadClojure.loadString("@test-bind/remembered"));
+        assertEquals("rules", rules.describe());
+        LoadClojure.loadString("(in-ns 'test-bind) (defn greet [name] (str \"Hi, \" name)) (in-ns 'user)");
+        assertEquals("Hi, you", rules.greet("you"));
+    }
+
+    public interface Missing {
+        void missing();
+    }
+
+    public void testMissing () throws Exception {
+        new LoadClojure();
+        LoadClojure.loadString("(ns test-bind-missing) (in-ns 'user)");
+        try {
+            LoadClojure.bind(Missing.class, "test-bind-missing");
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+
+    public void testObjectMethods () throws Exception {
+        new LoadClojure();
+        LoadClojure.loadString(
+            "(ns test-bind-comparator (:refer-clojure :exclude [compare]))"
+            + " (defn compare [x y] (clojure.core/compare (count x) (count y)))"
+            + " (in-ns 'user)");
+        @SuppressWarnings("unchecked")
+        Comparator<String> comparator = LoadClojure.bind(Comparator.class, "test-bind-comparator");
+        assertTrue(comparator.compare("ab", "c") > 0);
+        assertTrue(comparator.equals(comparator));
+    }
+
+    public interface Referred {
+        Object first(List<?> list);
+    }
+
+    public void testReferred () throws Exception {
+        new LoadClojure();
+        LoadClojure.loadString("(ns test-bind-referred) (in-ns 'user)");
+        try {
+            LoadClojure.bind(Referred.class, "test-bind-referred");
+            fail();
+        } catch (IllegalArgumentException ex) {
+        }
+    }
+}
@@ -0,0 +1,80 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+package com.google.leijure;
+
+import com.google.leijure.ClassCache;
+import com.google.leijure.ClojureRuntime;
+
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import junit.framework.TestCase;
+
+/**
+ * Testing the on-disk cache of compiled classes
+ */
+public class TestClassCache extends TestCase {
+    private static final String RULES =
+        "(ns test-class-cache) (def loads (atom 0)) (swap! loads inc) (defn f [x] (* 2 x))";
+
+    public void testClassCache () throws Exception {
+        Path root = Files.createTempDirectory("class-cache");
+        try {
+            Files.createDirectories(root.resolve("0.9.0").resolve("hstale"));
+            Files.createFile(root.resolve("0.9.0").resolve(ClassCache.MARKER));
+            Files.createDirectories(root.resolve("unrelated").resolve("data"));
+            URL clojure = clojure.lang.RT.class.getProtectionDomain().getCodeSource().getLocation();
+
+            // A first run compiles the code into the cache, deleting only what the cache owns.
+            ClojureRuntime first = ClojureRuntime.isolated(new URL[] { clojure });
+            ClassCache cold = new ClassCache(first, root);
+            assertFalse(Files.exists(root.resolve("0.9.0")));
+            assertTrue(Files.exists(root.resolve("unrelated").resolve("data")));
+            Path crashed = Files.createDirectory(cold.getDirectory().resolve("h0123.tmp456"));
+            Files.setLastModifiedTime(crashed, FileTime.fromMillis(0));
+            cold.loadString(RULES);
+            assertEquals(0, cold.getHits());
+            assertEquals(1, cold.getMisses());
+            assertEquals(10L, first.loadString("(test-class-cache/f 5)"));
+
+            // A later run, with a fresh runtime, loads it from the cache.
+            ClojureRuntime second = ClojureRuntime.isolated(new URL[] { clojure });
+            ClassCache warm = new ClassCache(second, root);
+            assertEquals(cold.getDirectory(), warm.getDirectory());
+            assertFalse(Files.exists(crashed));
+            warm.loadString(RULES);
+            assertEquals(1, warm.getHits());
+            assertEquals(0, warm.getMisses());
+            assertEquals(12L, second.loadString("(test-class-cache/f 6)"));
+            assertEquals(1L, second.loadString("@test-class-cache/loads"));
+        } finally {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    public void testException () throws Exception {
+        Path root = Files.createTempDirectory("class-cache");
+        try {
+            new LoadClojure();
+            ClassCache cache = new ClassCache(LoadClojure.getRuntime(), root);
+            for (int i = 0; i < 2; i++) {
+                try {
+                    cache.loadString("(ns test-class-cache-failure) (throw (IllegalStateException. \"boom\"))");
+                    fail();
+                } catch (Exception ex) {
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+package com.google.leijure;
+
+import com.google.leijure.ClassDataSharing;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * Testing the JVM started with a class-data-sharing archive
+ */
+public class TestClassDataSharing extends TestCase {
+    private static final String PROPERTY = "leijure.test.forwarded";
+
+    /** Prints the command that {@link LoadClojure#main} would run with the archive. */
+    public static class Parent {
+        public static void main (String[] args) {
+            System.out.println(ClassDataSharing.command(
+                Paths.get(args[0]), "Child", Collections.<String>emptyList()));
+        }
+    }
+
+    public void testJvmOptionsForwarded () throws Exception {
+        // Class paths with directories can't use an archive, so only check the command.
+        Process parent = new ProcessBuilder(
+            System.getProperty("java.home") + File.separator + "bin" + File.separator + "java",
+            "-D" + PROPERTY + "=yes", "-Xmx123m", "-XX:SharedArchiveFile=old.jsa",
+            "-cp", System.getProperty("java.class.path"), Parent.class.getName(), "new.jsa")
+            .redirectErrorStream(true).start();
+        String command = new String(parent.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        assertEquals(command, 0, parent.waitFor());
+        assertTrue(command, command.contains("-D" + PROPERTY + "=yes, -Xmx123m, "));
+        assertFalse(command, command.contains("old.jsa"));
+        assertTrue(command, command.contains("new.jsa"));
+        assertTrue(command, command.endsWith(", Child]\n"));
+    }
+}
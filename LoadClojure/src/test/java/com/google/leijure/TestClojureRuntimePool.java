@@ -0,0 +1,52 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+package com.google.leijure;
+
+import com.google.leijure.ClojureRuntimePool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+import junit.framework.TestCase;
+
+/**
+ * Testing a pool of isolated Clojure runtimes
+ */
+public class TestClojureRuntimePool extends TestCase {
+    public void testIsolation () throws Exception {
+        ClojureRuntimePool pool = new ClojureRuntimePool(2);
+        try {
+            assertEquals(2, pool.size());
+            pool.getRuntime(0).loadString("(def x 0)");
+            pool.getRuntime(1).loadString("(def x 1)");
+            assertEquals(0L, pool.getRuntime(0).loadString("x"));
+            assertEquals(1L, pool.getRuntime(1).loadString("x"));
+            assertNotSame(pool.getRuntime(0).loadString("clojure.lang.RT"),
+                          pool.getRuntime(1).loadString("clojure.lang.RT"));
+            assertNotSame(clojure.lang.RT.class, pool.getRuntime(0).loadString("clojure.lang.RT"));
+        } finally {
+            pool.close();
+        }
+    }
+
+    public void testTenants () throws Exception {
+        ClojureRuntimePool pool = new ClojureRuntimePool(3);
+        try {
+            for (int i = 0; i < 3; i++) {
+                pool.loadString("tenant" + i, "(def tenant " + i + ")");
+            }
+            List<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 30; i++) {
+                futures.add(pool.submit("tenant" + (i % 3), "tenant"));
+            }
+            for (int i = 0; i < 30; i++) {
+                assertEquals((long) (i % 3), futures.get(i).get());
+            }
+            assertEquals(4L, pool.loadString("(+ 2 2)"));
+        } finally {
+            pool.close();
+        }
+    }
+}
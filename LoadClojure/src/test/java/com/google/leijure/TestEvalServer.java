@@ -0,0 +1,133 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+package com.google.leijure;
+
+import com.google.leijure.EvalServer;
+import com.google.leijure.LoadClojure;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Testing the socket evaluation server
+ */
+public class TestEvalServer extends TestCase {
+    private static void send (DataOutputStream out, long id, String forms) throws IOException {
+        byte[] bytes = forms.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(8 + bytes.length);
+        out.writeLong(id);
+        out.write(bytes);
+    }
+
+    /** Reads a response into the map, as the status character followed by the text. */
+    private static void receive (DataInputStream in, Map<Long, String> responses) throws IOException {
+        int length = in.readInt();
+        long id = in.readLong();
+        byte status = in.readByte();
+        byte[] bytes = new byte[length - 9];
+        in.readFully(bytes);
+        responses.put(id, status + new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    public void testPipelined () throws Exception {
+        new LoadClojure();
+        // At most 2 pending requests per connection, so the server must stop and resume reading.
+        EvalServer server = EvalServer.loopback(LoadClojure.getRuntime(), 0, 3, 2, 1024);
+        try {
+            Socket socket = new Socket();
+            socket.connect(server.getLocalAddress());
+            try {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                DataInputStream in = new DataInputStream(socket.getInputStream());
+                for (int i = 0; i < 50; i++) {
+                    send(out, i, "(Thread/sleep " + (i % 3) + ") (* " + i + " " + i + ")");
+                }
+                send(out, 50, "(throw (IllegalStateException. \"oops\"))");
+                send(out, 51, "\"λ\"");
+                out.flush();
+                Map<Long, String> responses = new HashMap<Long, String>();
+                for (int i = 0; i < 52; i++) {
+                    receive(in, responses);
+                }
+                for (int i = 0; i < 50; i++) {
+                    assertEquals("0" + (i * i), responses.get((long) i));
+                }
+                assertTrue(responses.get(50L).startsWith("1"));
+                assertTrue(responses.get(50L).contains("oops"));
+                assertEquals("0\"λ\"", responses.get(51L));
+            } finally {
+                socket.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    public void testFrameTooLong () throws Exception {
+        new LoadClojure();
+        EvalServer server = EvalServer.loopback(LoadClojure.getRuntime(), 0, 1, 1, 16);
+        try {
+            Socket socket = new Socket();
+            socket.connect(server.getLocalAddress());
+            try {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                send(out, 0, "(+ 1 2 3 4 5 6 7 8 9)");
+                out.flush();
+                assertEquals(-1, socket.getInputStream().read());
+            } finally {
+                socket.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    public void testBadFrameAfterPending () throws Exception {
+        new LoadClojure();
+        // The bad length is only parsed once the first request is answered, by the server thread.
+        EvalServer server = EvalServer.loopback(LoadClojure.getRuntime(), 0, 1, 1, 1024);
+        try {
+            Socket bad = new Socket();
+            bad.connect(server.getLocalAddress());
+            bad.setSoTimeout(10000);
+            try {
+                DataOutputStream out = new DataOutputStream(bad.getOutputStream());
+                send(out, 0, "(Thread/sleep 100) 1");
+                out.writeInt(999999);
+                out.flush();
+                try {
+                    assertEquals(-1, bad.getInputStream().read());
+                } catch (SocketException ex) {
+                    // The connection was reset, as closed with unread input.
+                }
+            } finally {
+                bad.close();
+            }
+            // Other clients are still served.
+            Socket socket = new Socket();
+            socket.connect(server.getLocalAddress());
+            socket.setSoTimeout(10000);
+            try {
+                DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                send(out, 1, "(+ 1 2)");
+                out.flush();
+                Map<Long, String> responses = new HashMap<Long, String>();
+                receive(new DataInputStream(socket.getInputStream()), responses);
+                assertEquals("03", responses.get(1L));
+            } finally {
+                socket.close();
+            }
+        } finally {
+            server.close();
+        }
+    }
+}
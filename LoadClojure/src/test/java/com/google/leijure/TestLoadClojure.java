@@ -9,6 +9,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.stream.Stream;
 
 import junit.framework.TestCase;
 
@@ -29,4 +30,158 @@ public class TestLoadClojure extends TestCase {
         LoadClojure lc = new LoadClojure();
         assertEquals(4L, lc.loadString("(+ 2 2)"));
     }
+
+    public void testInvoke () throws Exception {
+        new LoadClojure();
+        Object plus = LoadClojure.loadString("+");
+        assertEquals(0L, LoadClojure.invoke(plus));
+        assertEquals(10L, LoadClojure.invoke(plus, 1L, 2L, 3L, 4L));
+    }
+
+    public void testException () throws Exception {
+        new LoadClojure();
+        Object boom = LoadClojure.loadString("(fn [] (throw (java.io.IOException. \"boom\")))");
+        try {
+            LoadClojure.invoke(boom);
+            fail();
+        } catch (java.io.IOException ex) {
+            assertEquals("boom", ex.getMessage());
+        }
+    }
+
+    public void testCache () throws Exception {
+        new LoadClojure();
+        LoadClojure.setCacheSize(2);
+        try {
+            Object fn = LoadClojure.compileString("(def x 1) (+ x 2)");
+            assertSame(fn, LoadClojure.compileString("(def x 1) (+ x 2)"));
+            assertEquals(3L, LoadClojure.loadCachedString("(def x 1) (+ x 2)"));
+            LoadClojure.loadCachedString("(+ 1 1)");
+            LoadClojure.loadCachedString("(+ 2 2)");
+            LoadClojure.CacheStats stats = LoadClojure.getCacheStats();
+            assertEquals(2, stats.getHits());
+            assertEquals(3, stats.getMisses());
+            assertEquals(1, stats.getEvictions());
+            assertEquals(2, stats.getSize());
+            assertNotSame(fn, LoadClojure.compileString("(def x 1) (+ x 2)"));
+        } finally {
+            LoadClojure.setCacheSize(0);
+        }
+        assertNull(LoadClojure.getCacheStats());
+    }
+
+    public void testCacheNamespace () throws Exception {
+        new LoadClojure();
+        LoadClojure.loadString("(ns test-cache-a) (def x 1) (ns test-cache-b) (def x 2) (in-ns 'user)");
+        LoadClojure.setCacheSize(4);
+        try {
+            for (String ns : new String[] { "test-cache-a", "test-cache-b", "test-cache-a" }) {
+                clojure.lang.Var.pushThreadBindings(clojure.lang.RT.map(
+                    clojure.lang.RT.CURRENT_NS, clojure.lang.Namespace.find(clojure.lang.Symbol.intern(ns))));
+                try {
+                    assertEquals(ns.endsWith("a") ? 1L : 2L, LoadClojure.loadCachedString("x"));
+                } finally {
+                    clojure.lang.Var.popThreadBindings();
+                }
+            }
+            LoadClojure.CacheStats stats = LoadClojure.getCacheStats();
+            assertEquals(1, stats.getHits());
+            assertEquals(2, stats.getMisses());
+        } finally {
+            LoadClojure.setCacheSize(0);
+        }
+    }
+
+    public void testCompileUnbalanced () throws Exception {
+        new LoadClojure();
+        assertEquals(3L, LoadClojure.loadCachedString("1 (+ 1 2)"));
+        assertEquals(null, LoadClojure.loadCachedString(""));
+        for (String forms : new String[] { "1) (+ 2", "(+ 1", ")" }) {
+            try {
+                LoadClojure.compileString(forms);
+                fail(forms);
+            } catch (Exception ex) {
+            }
+        }
+    }
+
+    public void testInitAsync () throws Exception {
+        assertEquals(4L, LoadClojure.initAsync(null).get().loadString("(+ 2 2)"));
+    }
+
+    public void testLoadReader () throws Exception {
+        new LoadClojure();
+        assertEquals(3L, LoadClojure.loadReader(new java.io.StringReader("(def y 1)\n(+ y 2)")));
+        try {
+            LoadClojure.loadReader(new java.io.StringReader("(+ 1 2)\n\n(undefined-function)"),
+                                   "my/rules.clj");
+            fail();
+        } catch (Exception ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().contains("my/rules.clj:3"));
+        }
+    }
+
+    public void testLoadFile () throws Exception {
+        new LoadClojure();
+        java.nio.file.Path file = java.nio.file.Files.createTempFile("test", ".clj");
+        try {
+            java.nio.file.Files.write(file, "(ns test-load-file)\n(defn f [] 42)\n(f)\n".getBytes("UTF-8"));
+            assertEquals(42L, LoadClojure.loadFile(file));
+        } finally {
+            java.nio.file.Files.delete(file);
+        }
+    }
+
+    public void testLoadResource () throws Exception {
+        new LoadClojure();
+        LoadClojure.loadResource("clojure/set.clj");
+        assertEquals(3, LoadClojure.loadString("(count (clojure.set/union #{1 2} #{2 3}))"));
+        try {
+            LoadClojure.loadResource("no/such/resource.clj");
+            fail();
+        } catch (java.io.FileNotFoundException ex) {
+        }
+    }
+
+    public void testLoadAll () throws Exception {
+        new LoadClojure();
+        LoadClojure.loadString("(ns test-load-all) (def base 100) (in-ns 'user)");
+        List<String> forms = new LinkedList<String>();
+        for (int i = 0; i < 100; i++) {
+            forms.add(i == 42 ? "(/ 1 0)" : "(+ base " + i + ")");
+        }
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(4);
+        clojure.lang.Var.pushThreadBindings(clojure.lang.RT.map(
+            clojure.lang.RT.CURRENT_NS,
+            clojure.lang.Namespace.find(clojure.lang.Symbol.intern("test-load-all"))));
+        try {
+            List<ClojureRuntime.Result> results = LoadClojure.loadAll(forms, executor, 8);
+            assertEquals(100, results.size());
+            for (int i = 0; i < 100; i++) {
+                if (i == 42) {
+                    assertFalse(results.get(i).isSuccess());
+                    assertTrue(results.get(i).getException().getCause() instanceof ArithmeticException);
+                } else {
+                    assertEquals(100L + i, results.get(i).get());
+                }
+            }
+        } finally {
+            clojure.lang.Var.popThreadBindings();
+            executor.shutdown();
+        }
+    }
+
+    public void testLoadAllStream () throws Exception {
+        new LoadClojure();
+        List<ClojureRuntime.Result> results = LoadClojure.loadAll(Stream.of("(+ 1 2)", "(* 2 3)"));
+        assertEquals(3L, results.get(0).get());
+        assertEquals(6L, results.get(1).get());
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        results = LoadClojure.loadAll(Stream.of("1", "2", "3"), executor, 2);
+        assertEquals(3, results.size());
+        for (ClojureRuntime.Result result : results) {
+            assertTrue(result.getException() instanceof java.util.concurrent.RejectedExecutionException);
+        }
+    }
 }
@@ -0,0 +1,87 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+package com.google.leijure;
+
+import com.google.leijure.LoadClojure;
+import com.google.leijure.LoadClojureMetrics;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.ObjectName;
+
+import junit.framework.TestCase;
+
+/**
+ * Testing the metrics of evaluations
+ */
+public class TestLoadClojureMetrics extends TestCase {
+    public void testEvaluate () throws Exception {
+        new LoadClojure();
+        Object ns = LoadClojure.loadString("(str *ns*)");
+        ClojureRuntime.Evaluation e = LoadClojure.getRuntime().evaluate(
+            "(ns test-metrics) (defn f [x] (* x 2)) (f 21)", false);
+        assertEquals(42L, e.getValue());
+        assertEquals(3, e.getForms());
+        assertTrue(e.getReadCompileNanos() > 0);
+        assertTrue(e.getExecuteNanos() > 0);
+        assertTrue(e.getJvmClassesLoaded() > 0);
+        assertEquals(42L, LoadClojure.loadString("(test-metrics/f 21)"));
+        assertEquals(ns, LoadClojure.loadString("(str *ns*)"));
+    }
+
+    public void testCounters () throws Exception {
+        new LoadClojure();
+        LoadClojureMetrics.resetCounters();
+        LoadClojureMetrics.setMeasuring(true);
+        try {
+            LoadClojure.loadString("(+ 1 2) (+ 3 4)");
+            try {
+                LoadClojure.loadString("(throw (Exception. \"boom\"))");
+                fail();
+            } catch (Exception ex) {
+                assertEquals("boom", ex.getMessage());
+            }
+        } finally {
+            LoadClojureMetrics.setMeasuring(false);
+        }
+        LoadClojure.loadString("(+ 5 6)");
+        LoadClojureMetrics.Snapshot snapshot = LoadClojureMetrics.snapshot();
+        assertEquals(2, snapshot.getEvaluations());
+        assertEquals(1, snapshot.getFailures());
+        assertEquals(3, snapshot.getForms());
+        assertTrue(snapshot.getMetaspaceUsed() > 0);
+        ObjectName name = LoadClojureMetrics.registerMBean();
+        assertEquals(2L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Evaluations"));
+    }
+
+    public void testSetCompilerVars () throws Exception {
+        new LoadClojure();
+        for (boolean measuring : new boolean[] { false, true }) {
+            LoadClojureMetrics.setMeasuring(measuring);
+            try {
+                assertEquals(1L, LoadClojure.loadString("(set! *warn-on-reflection* true) 1"));
+                assertEquals(2L, LoadClojure.loadString("(set! *unchecked-math* true) 2"));
+                assertEquals(Boolean.TRUE, LoadClojure.loadString(
+                    "(set! *unchecked-math* true) *unchecked-math*"));
+            } finally {
+                LoadClojureMetrics.setMeasuring(false);
+            }
+            assertEquals(Boolean.FALSE, LoadClojure.loadString("*warn-on-reflection*"));
+            assertEquals(Boolean.FALSE, LoadClojure.loadString("*unchecked-math*"));
+        }
+    }
+
+    public void testDisposable () throws Exception {
+        new LoadClojure();
+        LoadClojureMetrics.setDisposing(true);
+        try {
+            assertEquals(3L, LoadClojure.loadString("(def x 3) x"));
+        } finally {
+            LoadClojureMetrics.setDisposing(false);
+        }
+        assertEquals(0, LoadClojure.loadString(
+            "(count (filter #(.startsWith (str (ns-name %)) \"disposable-\") (all-ns)))"));
+        assertEquals(Boolean.FALSE, LoadClojure.loadString("(contains? (ns-publics *ns*) 'x)"));
+    }
+}
@@ -0,0 +1,76 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tables of the length in bytes of each char in a charset, so that delta positions
+ * can be computed without running an encoder on each char.
+ * The length of a char is that it adds to an encoded stream, without byte-order mark or
+ * other prefix; the whole length of a surrogate pair is counted on its high surrogate.
+ * Unmappable chars have the length of their replacement.
+ * Tables are computed once per charset, by encoding every char.
+ */
+public final class CharLengths {
+  private CharLengths() {}
+
+  private static final ConcurrentHashMap<Charset, byte[]> tables =
+    new ConcurrentHashMap<Charset, byte[]>();
+
+  /**
+   * Returns the table of lengths of the chars of the charset, indexed by char.
+   * The table is shared and must not be modified.
+   */
+  public static byte[] of (Charset charset) {
+    byte[] table = tables.get(charset);
+    if (table == null) {
+      table = compute(charset);
+      final byte[] previous = tables.putIfAbsent(charset, table);
+      if (previous != null) {
+        table = previous;
+      }
+    }
+    return table;
+  }
+
+  private static byte[] compute (Charset charset) {
+    final byte[] table = new byte[Character.MAX_VALUE + 1];
+    final CharsetEncoder encoder = charset.newEncoder()
+      .onUnmappableCharacter(CodingErrorAction.REPLACE)
+      .onMalformedInput(CodingErrorAction.REPLACE);
+    if (charset.name().equals("UTF-8")) {
+      for (int c = 0; c <= Character.MAX_VALUE; c++) {
+        table[c] = (byte) (c < 0x80 ? 1 : c < 0x800 ? 2
+                           : Character.isHighSurrogate((char) c) ? 4
+                           : Character.isLowSurrogate((char) c) ? 0 : 3);
+      }
+      return table;
+    }
+    try {
+      for (int c = 0; c <= Character.MAX_VALUE; c++) {
+        if (Character.isLowSurrogate((char) c)) {
+          continue;
+        }
+        final String s = Character.isHighSurrogate((char) c)
+          ? new String(new char[] { (char) c, '\uDC00' }) : String.valueOf((char) c);
+        // Encode it twice minus once, to not count a prefix such as a byte-order mark.
+        table[c] = (byte) (length(encoder, s + s) - length(encoder, s));
+      }
+    } catch (CharacterCodingException ex) {
+      throw new IllegalArgumentException("Can't encode with " + charset, ex);
+    }
+    return table;
+  }
+
+  private static int length (CharsetEncoder encoder, String s) throws CharacterCodingException {
+    return encoder.reset().encode(CharBuffer.wrap(s)).limit();
+  }
+}
@@ -0,0 +1,320 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import clojure.lang.ILookup;
+import clojure.lang.Keyword;
+
+/**
+ * A delta position: how a block of text moves the position, in bytes, chars, lines and columns,
+ * as computed by {@code leijure.delta-position}, with primitive fields rather than a map.
+ * Instances are immutable, and can be looked up like the maps they replace, e.g. {@code (:line d)}.
+ * To combine many delta positions without allocating, add them to an {@link Accumulator}.
+ */
+public final class DeltaPosition implements ILookup {
+  /** Flag set if the block starts with a newline, that ends a line together with a preceding return. */
+  public static final int STARTS_WITH_NEWLINE = 1;
+  /** Flag set if the block ends with a return, that ends a line together with a following newline. */
+  public static final int ENDS_WITH_RETURN = 2;
+  /** Value of {@link #tabLead} when the block contains no tab on its last line. */
+  public static final int NO_TAB = -1;
+
+  public final long bytes;
+  public final long chars;
+  public final long lines;
+  /**
+   * The column at the end of the block: relative to the start of its last line if it has
+   * several lines, else to the first tab stop after its first tab if any, else to its start.
+   * See {@link #endColumn} for the actual column.
+   */
+  public final long column;
+  /**
+   * If the block has a single line with a tab, the column of the first tab modulo the tab length,
+   * else {@link #NO_TAB}. The rest of the column of the tab is counted in {@link #column}.
+   */
+  public final int tabLead;
+  public final int flags;
+
+  public DeltaPosition(long bytes, long chars, long lines, long column, int tabLead, int flags) {
+    this.bytes = bytes;
+    this.chars = chars;
+    this.lines = lines;
+    this.column = column;
+    this.tabLead = tabLead;
+    this.flags = flags;
+  }
+
+  public static final DeltaPosition NULL = new DeltaPosition(0, 0, 0, 0, NO_TAB, 0);
+  public static final DeltaPosition RETURN = new DeltaPosition(1, 1, 1, 0, NO_TAB, ENDS_WITH_RETURN);
+  public static final DeltaPosition NEWLINE =
+    new DeltaPosition(1, 1, 1, 0, NO_TAB, STARTS_WITH_NEWLINE);
+  // hack: formfeed has zero width.
+  // It doesn't start with a newline either, or else "\r\f" would count no line,
+  // and its blocks would not combine associatively.
+  public static final DeltaPosition FORMFEED = new DeltaPosition(1, 1, 0, 0, NO_TAB, 0);
+  public static final DeltaPosition TAB = new DeltaPosition(1, 1, 0, 0, 0, 0);
+  /** A codepoint beyond the BMP, encoded in 4 bytes of UTF-8, and two Java chars. */
+  public static final DeltaPosition SURROGATE_PAIR = new DeltaPosition(4, 2, 0, 1, NO_TAB, 0);
+
+  private static final DeltaPosition[] NORMAL = new DeltaPosition[7];
+  static {
+    for (int i = 0; i < NORMAL.length; i++) {
+      NORMAL[i] = new DeltaPosition(i, 1, 0, 1, NO_TAB, 0);
+    }
+  }
+
+  /**
+   * Returns the delta position of a character that is neither a tab nor a line or page break,
+   * encoded in the given number of bytes, from 0 to 6.
+   */
+  public static DeltaPosition normalChar (int byteLength) {
+    return NORMAL[byteLength];
+  }
+
+  private static final DeltaPosition[] LOW_SURROGATE = new DeltaPosition[7];
+  static {
+    for (int i = 0; i < LOW_SURROGATE.length; i++) {
+      LOW_SURROGATE[i] = new DeltaPosition(i, 1, 0, 0, NO_TAB, 0);
+    }
+  }
+
+  /**
+   * Returns the delta position of a char, given the length of each char in bytes,
+   * see {@link CharLengths}. The low surrogate of a pair has no width.
+   */
+  public static DeltaPosition ofChar (char c, byte[] lengths) {
+    final DeltaPosition d;
+    switch (c) {
+      case '\t': d = TAB; break;
+      case '\n': d = NEWLINE; break;
+      case '\f': d = FORMFEED; break;
+      case '\r': d = RETURN; break;
+      default:
+        return Character.isLowSurrogate(c) ? LOW_SURROGATE[lengths[c]] : NORMAL[lengths[c]];
+    }
+    // In charsets such as UTF-16, these chars take more than one byte.
+    return lengths[c] == 1 ? d
+      : new DeltaPosition(lengths[c], d.chars, d.lines, d.column, d.tabLead, d.flags);
+  }
+
+  public boolean startsWithNewline () {
+    return (flags & STARTS_WITH_NEWLINE) != 0;
+  }
+
+  public boolean endsWithReturn () {
+    return (flags & ENDS_WITH_RETURN) != 0;
+  }
+
+  static long nextCeiling (long n, long m) {
+    return m + n - Math.floorMod(n, m);
+  }
+
+  /**
+   * Returns the column at the end of the block, given the column at its start.
+   */
+  public long endColumn (long startColumn, int tabLength) {
+    if (lines != 0) {
+      return column;
+    } else if (tabLead == NO_TAB) {
+      return startColumn + column;
+    }
+    return nextCeiling(startColumn + tabLead, tabLength) + column;
+  }
+
+  /**
+   * Combines two delta positions, for the concatenation of their blocks; this operation is associative.
+   */
+  public static DeltaPosition combine (DeltaPosition x, DeltaPosition y, int tabLength) {
+    return new Accumulator(x, tabLength).add(y).get();
+  }
+
+  /**
+   * A mutable delta position, that accumulates delta positions in place.
+   * The tab length is fixed when it is created.
+   * Not thread-safe: delta positions accumulated in parallel should each use their own,
+   * then be combined.
+   */
+  public static final class Accumulator {
+    private final int tabLength;
+    private long bytes;
+    private long chars;
+    private long lines;
+    private long column;
+    private int tabLead = NO_TAB;
+    private int flags;
+
+    public Accumulator(int tabLength) {
+      if (tabLength <= 0) {
+        throw new IllegalArgumentException("Tab length must be positive: " + tabLength);
+      }
+      this.tabLength = tabLength;
+    }
+
+    public Accumulator(DeltaPosition initial, int tabLength) {
+      this(tabLength);
+      this.bytes = initial.bytes;
+      this.chars = initial.chars;
+      this.lines = initial.lines;
+      this.column = initial.column;
+      this.tabLead = initial.tabLead;
+      this.flags = initial.flags;
+    }
+
+    public int getTabLength () {
+      return tabLength;
+    }
+
+    public long getBytes () {
+      return bytes;
+    }
+
+    public long getChars () {
+      return chars;
+    }
+
+    public long getLines () {
+      return lines;
+    }
+
+    public long getColumn () {
+      return column;
+    }
+
+    /**
+     * Adds the delta position of a block that follows what was accumulated so far.
+     */
+    public Accumulator add (DeltaPosition y) {
+      if (y.lines != 0) {
+        tabLead = NO_TAB;
+        column = y.column;
+      } else if (y.tabLead == NO_TAB) {
+        column += y.column;
+      } else if (tabLead != NO_TAB) {
+        // Both blocks start with a tab: the end of this one is on a tab stop, so is y's lead.
+        column = nextCeiling(column + y.tabLead, tabLength) + y.column;
+      } else if (lines != 0) {
+        // This block ends at a known column: resolve the tab of y.
+        column = nextCeiling(column + y.tabLead, tabLength) + y.column;
+      } else {
+        final long lead = column + y.tabLead;
+        tabLead = (int) Math.floorMod(lead, (long) tabLength);
+        column = lead - tabLead + y.column;
+      }
+      if ((flags & ENDS_WITH_RETURN) != 0 && (y.flags & STARTS_WITH_NEWLINE) != 0) {
+        lines--;
+      }
+      lines += y.lines;
+      int f = chars == 0 ? y.flags & STARTS_WITH_NEWLINE : flags & STARTS_WITH_NEWLINE;
+      f |= y.chars == 0 ? flags & ENDS_WITH_RETURN : y.flags & ENDS_WITH_RETURN;
+      flags = f;
+      bytes += y.bytes;
+      chars += y.chars;
+      return this;
+    }
+
+    /**
+     * Adds a run of text on a single line without tabs, in place.
+     * Same as adding {@code new DeltaPosition(runBytes, runChars, 0, runColumns, NO_TAB, 0)}.
+     */
+    public Accumulator addRun (long runBytes, long runChars, long runColumns) {
+      column += runColumns;
+      if (runChars != 0) {
+        flags = chars == 0 ? 0 : flags & STARTS_WITH_NEWLINE;
+      }
+      bytes += runBytes;
+      chars += runChars;
+      return this;
+    }
+
+    /**
+     * Adds the chars of a sequence, encoded with the given lengths, see {@link CharLengths}.
+     */
+    public Accumulator addChars (CharSequence s, byte[] lengths) {
+      final int n = s.length();
+      for (int i = 0; i < n; i++) {
+        final char c = s.charAt(i);
+        switch (c) {
+          case '\t': case '\n': case '\f': case '\r':
+            add(c == '\t' ? TAB : c == '\n' ? NEWLINE : c == '\f' ? FORMFEED : RETURN);
+            // Bytes beyond the first, in charsets such as UTF-16.
+            addRun(lengths[c] - 1, 0, 0);
+            break;
+          default:
+            addRun(lengths[c], 1, Character.isLowSurrogate(c) ? 0 : 1);
+        }
+      }
+      return this;
+    }
+
+    /**
+     * Returns the delta position accumulated so far.
+     */
+    public DeltaPosition get () {
+      return new DeltaPosition(bytes, chars, lines, column, tabLead, flags);
+    }
+  }
+
+  private static final Keyword BYTE = Keyword.intern("byte");
+  private static final Keyword CHAR = Keyword.intern("char");
+  private static final Keyword LINE = Keyword.intern("line");
+  private static final Keyword COLUMN = Keyword.intern("column");
+  private static final Keyword TAB_LEAD = Keyword.intern("tab-lead");
+  private static final Keyword STARTS_WITH_NEWLINE_P = Keyword.intern("starts-with-newline?");
+  private static final Keyword ENDS_WITH_RETURN_P = Keyword.intern("ends-with-return?");
+
+  @Override
+  public Object valAt (Object key) {
+    return valAt(key, null);
+  }
+
+  @Override
+  public Object valAt (Object key, Object notFound) {
+    if (key == BYTE) {
+      return bytes;
+    } else if (key == CHAR) {
+      return chars;
+    } else if (key == LINE) {
+      return lines;
+    } else if (key == COLUMN) {
+      return column;
+    } else if (key == TAB_LEAD) {
+      return tabLead == NO_TAB ? null : (Object) (long) tabLead;
+    } else if (key == STARTS_WITH_NEWLINE_P) {
+      return startsWithNewline();
+    } else if (key == ENDS_WITH_RETURN_P) {
+      return endsWithReturn();
+    }
+    return notFound;
+  }
+
+  @Override
+  public boolean equals (Object o) {
+    if (!(o instanceof DeltaPosition)) {
+      return false;
+    }
+    final DeltaPosition d = (DeltaPosition) o;
+    return bytes == d.bytes && chars == d.chars && lines == d.lines && column == d.column
+      && tabLead == d.tabLead && flags == d.flags;
+  }
+
+  @Override
+  public int hashCode () {
+    long h = bytes;
+    h = h * 31 + chars;
+    h = h * 31 + lines;
+    h = h * 31 + column;
+    h = h * 31 + tabLead;
+    h = h * 31 + flags;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  @Override
+  public String toString () {
+    return "{:byte " + bytes + " :char " + chars + " :line " + lines + " :column " + column
+      + " :tab-lead " + (tabLead == NO_TAB ? "nil" : String.valueOf(tabLead))
+      + " :starts-with-newline? " + startsWithNewline()
+      + " :ends-with-return? " + endsWithReturn() + "}";
+  }
+}
@@ -0,0 +1,221 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * An index of the delta positions of UTF-8 text, to find the line and column
+ * of a byte or char offset in O(log n) plus a scan of one chunk.
+ * The text is split in chunks that don't break codepoints, whose delta positions are
+ * computed in parallel on a fork/join pool, and combined in a balanced tree,
+ * where each node holds the delta position of the chunks below it.
+ * Chars are counted as in Java: codepoints beyond the BMP count as two chars, one column.
+ * Chunks are scanned by {@link Utf8Scanner}.
+ * Files are memory-mapped, and must not change while indexed.
+ */
+public final class PositionIndex {
+  /** The largest chunk size, so that a chunk fits in an overlap of mapped regions. */
+  public static final int MAX_CHUNK_SIZE = 1 << 26;
+  /** The size of the regions in which files are mapped. */
+  private static final long REGION_SIZE = 1L << 30;
+
+  private final ByteBuffer[] regions;
+  private final long regionSize;
+  private final long size;
+  private final int tabLength;
+  /** The start of each chunk, then the size of the text. */
+  private final long[] starts;
+  /** The delta positions of the tree: the root at 1, and the children of node i at 2i and 2i+1. */
+  private final DeltaPosition[] tree;
+
+  private PositionIndex(ByteBuffer[] regions, long regionSize, long size,
+                        int chunkSize, int tabLength, ForkJoinPool pool) {
+    if (chunkSize < 16 || chunkSize > MAX_CHUNK_SIZE) {
+      throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+    }
+    if (tabLength <= 0) {
+      throw new IllegalArgumentException("Tab length must be positive: " + tabLength);
+    }
+    this.regions = regions;
+    this.regionSize = regionSize;
+    this.size = size;
+    this.tabLength = tabLength;
+    final int n = (int) Math.max(1, (size + chunkSize - 1) / chunkSize);
+    starts = new long[n + 1];
+    for (int i = 1; i < n; i++) {
+      // Attach the continuation bytes of a codepoint broken at the boundary to the previous chunk;
+      // a codepoint has at most 3, and invalid UTF-8 must not grow a chunk beyond the overlap.
+      final long boundary = (long) i * chunkSize;
+      long start = boundary;
+      while (start < size && start < boundary + 3 && (byteAt(start) & 0xC0) == 0x80) {
+        start++;
+      }
+      starts[i] = start;
+    }
+    starts[n] = size;
+    tree = new DeltaPosition[4 * n];
+    pool.invoke(new Build(1, 0, n));
+  }
+
+  /**
+   * Indexes UTF-8 text in a buffer, from its position to its limit.
+   * @param chunkSize the size of chunks, from 16 to {@link #MAX_CHUNK_SIZE} bytes.
+   */
+  public static PositionIndex of (ByteBuffer text, int chunkSize, int tabLength, ForkJoinPool pool) {
+    final ByteBuffer buffer = text.slice().order(ByteOrder.LITTLE_ENDIAN);
+    return new PositionIndex(new ByteBuffer[] { buffer }, Long.MAX_VALUE, buffer.limit(),
+                             chunkSize, tabLength, pool);
+  }
+
+  /**
+   * Indexes a UTF-8 file, mapped in memory, of any size.
+   * @see #of(ByteBuffer, int, int, ForkJoinPool)
+   */
+  public static PositionIndex of (Path file, int chunkSize, int tabLength, ForkJoinPool pool)
+    throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      final int n = (int) Math.max(1, (size + REGION_SIZE - 1) / REGION_SIZE);
+      final ByteBuffer[] regions = new ByteBuffer[n];
+      for (int i = 0; i < n; i++) {
+        // Regions overlap by more than a chunk, so that each chunk is in the region of its start.
+        final long start = i * REGION_SIZE;
+        final long length = Math.min(REGION_SIZE + MAX_CHUNK_SIZE + 4, size - start);
+        regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        regions[i].order(ByteOrder.LITTLE_ENDIAN);
+      }
+      return new PositionIndex(regions, REGION_SIZE, size, chunkSize, tabLength, pool);
+    }
+  }
+
+  private int byteAt (long offset) {
+    return regions[(int) (offset / regionSize)].get((int) (offset % regionSize));
+  }
+
+  private final class Build extends RecursiveTask<DeltaPosition> {
+    private static final long serialVersionUID = 1L;
+
+    private final int node;
+    private final int lo;
+    private final int hi;
+
+    Build(int node, int lo, int hi) {
+      this.node = node;
+      this.lo = lo;
+      this.hi = hi;
+    }
+
+    @Override
+    protected DeltaPosition compute () {
+      final DeltaPosition d;
+      if (hi - lo == 1) {
+        final DeltaPosition.Accumulator a = new DeltaPosition.Accumulator(tabLength);
+        scan(lo, Long.MAX_VALUE, Long.MAX_VALUE, a);
+        d = a.get();
+      } else {
+        final int mid = (lo + hi) >>> 1;
+        final Build left = new Build(2 * node, lo, mid);
+        left.fork();
+        final DeltaPosition right = new Build(2 * node + 1, mid, hi).compute();
+        d = DeltaPosition.combine(left.join(), right, tabLength);
+      }
+      tree[node] = d;
+      return d;
+    }
+  }
+
+  /**
+   * Adds the codepoints of a chunk to the accumulator,
+   * until the next one would take its bytes or chars beyond the given limits.
+   */
+  private void scan (int chunk, long byteLimit, long charLimit, DeltaPosition.Accumulator a) {
+    final long start = starts[chunk];
+    long end = starts[chunk + 1];
+    if (byteLimit - a.getBytes() < end - start) {
+      // Stop before the codepoint that contains the byte limit, after at most 3 continuation bytes.
+      final long limit = start + (byteLimit - a.getBytes());
+      end = limit;
+      while (end > start && end > limit - 3 && (byteAt(end) & 0xC0) == 0x80) {
+        end--;
+      }
+    }
+    final ByteBuffer region = regions[(int) (start / regionSize)];
+    final int from = (int) (start % regionSize);
+    Utf8Scanner.scan(region, from, (int) (from + end - start), charLimit, a);
+  }
+
+  public long size () {
+    return size;
+  }
+
+  public int getTabLength () {
+    return tabLength;
+  }
+
+  public int chunkCount () {
+    return starts.length - 1;
+  }
+
+  /**
+   * Returns the delta position of the whole text.
+   */
+  public DeltaPosition total () {
+    return tree[1];
+  }
+
+  /**
+   * Returns the delta position of the text before the codepoint that contains the byte offset.
+   * Its {@code lines} and {@link DeltaPosition#endColumn endColumn(0, tabLength)}
+   * are the line and column of that codepoint.
+   */
+  public DeltaPosition atByte (long offset) {
+    if (offset < 0 || offset > size) {
+      throw new IndexOutOfBoundsException("Byte offset " + offset + " not in [0, " + size + "]");
+    }
+    return find(offset, Long.MAX_VALUE);
+  }
+
+  /**
+   * Returns the delta position of the text before the char offset,
+   * or before the surrogate pair it is in the middle of.
+   * @see #atByte
+   */
+  public DeltaPosition atChar (long offset) {
+    if (offset < 0 || offset > total().chars) {
+      throw new IndexOutOfBoundsException(
+        "Char offset " + offset + " not in [0, " + total().chars + "]");
+    }
+    return find(Long.MAX_VALUE, offset);
+  }
+
+  private DeltaPosition find (long byteOffset, long charOffset) {
+    final DeltaPosition.Accumulator a = new DeltaPosition.Accumulator(tabLength);
+    int node = 1;
+    int lo = 0;
+    int hi = chunkCount();
+    while (hi - lo > 1) {
+      final int mid = (lo + hi) >>> 1;
+      final DeltaPosition left = tree[2 * node];
+      if (byteOffset < a.getBytes() + left.bytes || charOffset < a.getChars() + left.chars) {
+        node = 2 * node;
+        hi = mid;
+      } else {
+        a.add(left);
+        node = 2 * node + 1;
+        lo = mid;
+      }
+    }
+    scan(lo, byteOffset, charOffset, a);
+    return a.get();
+  }
+}
@@ -0,0 +1,152 @@
+// Copyright (c) 2014 Google, Inc.
+// The use and distribution terms for this software are covered by the
+// Apache License 2.0 http://www.apache.org/licenses/LICENSE-2.0.html
+// Original author: Francois-Rene Rideau <tunes@google.com>
+package com.google.leijure;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Computes the delta position of UTF-8 bytes, without decoding them,
+ * reading them 8 at a time as a long, SIMD within a register:
+ * bit tricks find the tabs, returns, newlines and formfeeds in the 8 bytes,
+ * and count the codepoints between them from their lead bytes,
+ * that is, the bytes that are not continuation bytes 10xxxxxx.
+ * Codepoints of 4 bytes count as two chars, as in Java, and one column.
+ * Invalid sequences are not checked: stray continuation bytes count as no char.
+ */
+public final class Utf8Scanner {
+  private Utf8Scanner() {}
+
+  private static final long ONES = 0x0101010101010101L;
+  private static final long HIGHS = 0x8080808080808080L;
+  private static final long LOWS = 0x7F7F7F7F7F7F7F7FL;
+
+  /** Returns the high bit of each byte of x that is zero. */
+  private static long zeros (long x) {
+    return ~(((x & LOWS) + LOWS) | x | LOWS);
+  }
+
+  /** Returns the high bit of each byte of w that is a tab, return, newline or formfeed. */
+  private static long specials (long w) {
+    return zeros(w ^ ('\t' * ONES)) | zeros(w ^ ('\n' * ONES))
+      | zeros(w ^ ('\f' * ONES)) | zeros(w ^ ('\r' * ONES));
+  }
+
+  /** Returns the high bit of each byte of w that is a continuation byte 10xxxxxx. */
+  private static long continuations (long w) {
+    return w & ~(w << 1) & HIGHS;
+  }
+
+  /** Returns the high bit of each byte of w that leads a 4-byte sequence 11110xxx. */
+  private static long leads4 (long w) {
+    return w & (w << 1) & (w << 2) & (w << 3) & HIGHS;
+  }
+
+  private static DeltaPosition special (int b) {
+    switch (b) {
+      case '\t': return DeltaPosition.TAB;
+      case '\n': return DeltaPosition.NEWLINE;
+      case '\r': return DeltaPosition.RETURN;
+      default: return DeltaPosition.FORMFEED;
+    }
+  }
+
+  /**
+   * Adds the bytes of w whose high bits are in mask, none of them special, as a run.
+   */
+  private static void addRun (long w, long mask, DeltaPosition.Accumulator a) {
+    final int bytes = Long.bitCount(mask);
+    final int codepoints = bytes - Long.bitCount(continuations(w) & mask);
+    a.addRun(bytes, codepoints + Long.bitCount(leads4(w) & mask), codepoints);
+  }
+
+  /**
+   * Returns a view of the buffer with the byte order used by {@link #scan}.
+   */
+  public static ByteBuffer littleEndian (ByteBuffer buffer) {
+    return buffer.order() == ByteOrder.LITTLE_ENDIAN
+      ? buffer : buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+  }
+
+  /**
+   * Adds the delta position of the bytes of the buffer from {@code from} to {@code to},
+   * or only those before the first char at or beyond {@code charLimit} chars in the accumulator.
+   * @param buffer a buffer in little-endian order, see {@link #littleEndian}.
+   * @return the index after the last byte added.
+   */
+  public static int scan (ByteBuffer buffer, int from, int to, long charLimit,
+                          DeltaPosition.Accumulator a) {
+    int i = from;
+    // A word has at most 8 chars, plus 2 for the 4-byte codepoints that it leads.
+    while (to - i >= 8 && a.getChars() + 10 <= charLimit) {
+      final long w = buffer.getLong(i);
+      long s = specials(w);
+      if (s == 0) {
+        addRun(w, HIGHS, a);
+      } else {
+        long done = 0;
+        do {
+          final long bit = s & -s;
+          // The bytes before the special byte, not yet added.
+          addRun(w, (bit - 1) & HIGHS & ~done, a);
+          final int k = Long.numberOfTrailingZeros(bit) >>> 3;
+          a.add(special((int) (w >>> (8 * k)) & 0xFF));
+          done |= (bit << 1) - 1;
+          s &= s - 1;
+        } while (s != 0);
+        addRun(w, HIGHS & ~done, a);
+      }
+      i += 8;
+    }
+    for (; i < to; i++) {
+      final int b = buffer.get(i) & 0xFF;
+      if ((b & 0xC0) == 0x80) {
+        a.addRun(1, 0, 0);
+        continue;
+      }
+      final int chars = b >= 0xF0 ? 2 : 1;
+      if (a.getChars() + chars > charLimit) {
+        break;
+      }
+      if (b == '\t' || b == '\n' || b == '\f' || b == '\r') {
+        a.add(special(b));
+      } else {
+        a.addRun(1, chars, 1);
+      }
+    }
+    return i;
+  }
+
+  /**
+   * Returns the delta position of the bytes of the buffer from its position to its limit.
+   */
+  public static DeltaPosition scan (ByteBuffer buffer, int tabLength) {
+    final DeltaPosition.Accumulator a = new DeltaPosition.Accumulator(tabLength);
+    scan(littleEndian(buffer), buffer.position(), buffer.limit(), Long.MAX_VALUE, a);
+    return a.get();
+  }
+
+  /**
+   * Returns the delta position of a UTF-8 file, mapped in memory, in a single thread.
+   * @see PositionIndex to compute it in parallel
+   */
+  public static DeltaPosition scan (Path file, int tabLength) throws IOException {
+    final DeltaPosition.Accumulator a = new DeltaPosition.Accumulator(tabLength);
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final long size = channel.size();
+      for (long start = 0; start < size; start += Integer.MAX_VALUE) {
+        final ByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                                              Math.min(Integer.MAX_VALUE, size - start));
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        scan(region, 0, region.limit(), Long.MAX_VALUE, a);
+      }
+    }
+    return a.get();
+  }
+}
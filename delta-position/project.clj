@@ -4,6 +4,7 @@
   :license {:name "Apache License 2.0"
             :url "http://www.apache.org/licenses/"}
   :dependencies [[org.clojure/clojure "1.6.0"]]
+  :java-source-paths ["java"]
   :source-paths ["src"]
   :test-paths ["test"]
   :main leijure.delta-position)
@@ -1,4 +1,6 @@
-(ns leijure.delta-position)
+(ns leijure.delta-position
+  (:import [com.google.leijure CharLengths DeltaPosition DeltaPosition$Accumulator
+            PositionIndex Utf8Scanner]))
 
 ;; If you want to know what line and column you're at while reading a stream,
 ;; you can just use clojure.lang.LineNumberingPushbackReader...
@@ -6,7 +8,10 @@
 ;; (inheriting this behavior or lack thereof from java.io.LineNumberingReader).
 ;; If you care about tab width, use this delta-position library instead.
 ;;
-;; A δposition is a map representing how a given string affects the position.
+;; A δposition is a value representing how a given string affects the position.
+;; It is a com.google.leijure.DeltaPosition, with primitive fields,
+;; that can be looked up like a map with the keys
+;; :byte :char :line :column :tab-lead :starts-with-newline? :ends-with-return?
 ;; Importantly, combining two δposition is associative
 ;; — it's not merely a position that you have to compute from the beginning
 ;; of the file, but a delta that you can compute between arbitrary points.
@@ -46,83 +51,77 @@
     "UTF-8" utf8-encoder
     (%charset-encoder name)))
 
+;; The lengths of chars are looked up in a table computed once per charset,
+;; rather than by running the encoder on each char.
+(defn ^"[B" char-lengths [^java.nio.charset.CharsetEncoder encoder]
+  (CharLengths/of (.charset encoder)))
+
 (defn encoder-char-length [char encoder]
-  (-> encoder
-      (.encode (java.nio.CharBuffer/wrap (char-array [char])))
-      (.limit)))
+  (aget (char-lengths encoder) (int char)))
 
 ;; A δposition is a difference in position from a block of text.
-(def null-δposition
-  {:byte 0 :char 0 :line 0 :column 0 :tab-lead nil
-   :starts-with-newline? false :ends-with-return? false })
+(def null-δposition DeltaPosition/NULL)
 
 (defn %normal-char-δposition [length]
-  {:byte length :char 1 :line 0 :column 1 :tab-lead nil
-   :starts-with-newline? false :ends-with-return? false })
-
-(def %normal-char-δposition-vec
-  (into [] (for [i (range 1 7)] (%normal-char-δposition i))))
+  (DeltaPosition/normalChar length))
 
 (def %normal-char-δposition-1
-  (%normal-char-δposition-vec 0))
+  (%normal-char-δposition 1))
 
 (defn normal-char-δposition
-  ([l] (%normal-char-δposition-vec (dec l)))
+  ([l] (%normal-char-δposition l))
   ([] %normal-char-δposition-1))
 
-(def return-δposition
-  {:byte 1 :char 1 :line 1 :column 0 :tab-lead nil
-   :starts-with-newline? false :ends-with-return? true})
+(def return-δposition DeltaPosition/RETURN)
 
-(def newline-δposition
-  {:byte 1 :char 1 :line 1 :column 0 :tab-lead nil
-   :starts-with-newline? true :ends-with-return? false})
+(def newline-δposition DeltaPosition/NEWLINE)
 
 (def formfeed-δposition
   ;; hack: formfeed has zero width.
   ;; Maybe add state so it resets the column?
-  {:byte 1 :char 1 :line 0 :column 0 :tab-lead nil
-   :starts-with-newline? true :ends-with-return? false})
+  DeltaPosition/FORMFEED)
+
+(def tab-δposition DeltaPosition/TAB)
+
+(defn δposition-column
+  ([^DeltaPosition d] (δposition-column d 0))
+  ([^DeltaPosition d start-column] (.endColumn d (long start-column) (int *tab-length*))))
 
-(def tab-δposition
-  {:byte 1 :char 1 :line 0 :column 0 :tab-lead 0
-   :starts-with-newline? false :ends-with-return? false})
+(defn δposition->map [^DeltaPosition d]
+  {:byte (.bytes d) :char (.chars d) :line (.lines d) :column (.column d)
+   :tab-lead (:tab-lead d)
+   :starts-with-newline? (.startsWithNewline d) :ends-with-return? (.endsWithReturn d)})
+
+;; *tab-length* is only looked up once per call, not once per combined δposition:
+;; an accumulator fixes it when created.
+(defn δposition-accumulator
+  ([] (DeltaPosition$Accumulator. (int *tab-length*)))
+  ([^DeltaPosition δposition] (DeltaPosition$Accumulator. δposition (int *tab-length*))))
 
 (defn combine-δposition
   ([] null-δposition)
   ([x] x)
-  ([x y] (let [{xb :byte xc :char xln :line xco :column xt :tab-lead
-                xn :starts-with-newline? xr :ends-with-return?} x
-               {yb :byte yc :char yln :line yco :column yt :tab-lead
-                yn :starts-with-newline? yr :ends-with-return?} y
-               [tab-lead column]
-               (cond
-                (not (zero? yln)) [yt yco]
-                xt [xt (+ (if yt (next-ceiling (+ xco yt) *tab-length*) xco)
-                          yco)]
-                yt [(mod (+ xco yt) *tab-length*)
-                    (+ (next-ceiling (+ xco yt) *tab-length*) yco)]
-                :else [nil (+ xco yco)])]
-           {:byte (+ xb yb)
-            :char (+ xc yc)
-            :line (+ xln yln (if (and xr yn) -1 0))
-            :tab-lead tab-lead
-            :column column
-            :starts-with-newline? (if (zero? xc) yn xn)
-            :ends-with-return? (if (zero? yc) xr yr)}))
-  ([x y z & t] (reduce combine-δposition (list* x y z t))))
+  ([^DeltaPosition x ^DeltaPosition y] (DeltaPosition/combine x y (int *tab-length*)))
+  ([^DeltaPosition x ^DeltaPosition y ^DeltaPosition z & t]
+     (let [^DeltaPosition$Accumulator a (δposition-accumulator x)]
+       (.add a y)
+       (.add a z)
+       (doseq [^DeltaPosition δposition t]
+         (.add a δposition))
+       (.get a))))
 
 (defn char-δposition
   ([char encoder]
-     (case char
-       \return return-δposition
-       \newline newline-δposition
-       \formfeed formfeed-δposition
-       \tab tab-δposition
-       nil null-δposition
-       (if (and (= encoder utf8-encoder) (< (int char) 128))
-         %normal-char-δposition-1
-         (normal-char-δposition char encoder))))
+     (cond
+      (nil? char) null-δposition
+      (and (identical? encoder utf8-encoder) (< (int char) 128))
+      (case char
+        \return return-δposition
+        \newline newline-δposition
+        \formfeed formfeed-δposition
+        \tab tab-δposition
+        %normal-char-δposition-1)
+      :else (DeltaPosition/ofChar char (char-lengths encoder))))
   ([char]
      (char-δposition char utf8-encoder)))
 
@@ -134,7 +133,13 @@
 
 (defn seq-δposition
   ([s encoder]
-     (reduce #(inc-δposition % %2 encoder) null-δposition s))
+     ;; Accumulate in place, without allocating a δposition per character.
+     (let [^DeltaPosition$Accumulator a (δposition-accumulator)]
+       (if (instance? CharSequence s)
+         (.addChars a ^CharSequence s (char-lengths encoder))
+         (doseq [char s]
+           (.add a ^DeltaPosition (char-δposition char encoder))))
+       (.get a)))
   ([s]
      (seq-δposition s utf8-encoder)))
 
@@ -150,7 +155,7 @@
 (defn- %positioned-stream [reader δposition encoder line-offset column-offset]
   (lazy-seq
    (if-let [char (read-char reader)]
-     (cons [char (+ line-offset (:line δposition)) (+ column-offset (:column δposition))]
+     (cons [char (+ line-offset (:line δposition)) (+ column-offset (δposition-column δposition))]
            (%positioned-stream
             reader (inc-δposition δposition char encoder) encoder line-offset column-offset)))))
 
@@ -164,3 +169,49 @@
       (or (:encoder options) utf8-encoder)
       (or (:line-offset options) 0)
       (or (:column-offset options) 0))))
+
+;; The δposition of UTF-8 bytes can be computed without decoding them,
+;; 8 bytes at a time, from a memory-mapped file or a buffer.
+(defn utf8-δposition [input]
+  (let [tab-length (int *tab-length*)]
+    (cond
+     (instance? java.nio.ByteBuffer input)
+     (Utf8Scanner/scan ^java.nio.ByteBuffer input tab-length)
+     (instance? java.nio.file.Path input)
+     (Utf8Scanner/scan ^java.nio.file.Path input tab-length)
+     (instance? java.io.File input)
+     (Utf8Scanner/scan (.toPath ^java.io.File input) tab-length)
+     :else (throw (Exception. (format "can't scan %s" input))))))
+
+;; A position index splits UTF-8 text in chunks, computes their δpositions in parallel,
+;; and combines them in a balanced tree, to find the position of any offset in O(log n).
+(def default-chunk-size (bit-shift-left 1 16))
+
+(defn position-index
+  ([input]
+     (position-index input {}))
+  ([input options]
+     (let [chunk-size (int (or (:chunk-size options) default-chunk-size))
+           tab-length (int *tab-length*)
+           ^java.util.concurrent.ForkJoinPool pool
+           (or (:pool options) (java.util.concurrent.ForkJoinPool/commonPool))]
+       (cond
+        (instance? java.nio.ByteBuffer input)
+        (PositionIndex/of ^java.nio.ByteBuffer input chunk-size tab-length pool)
+        (instance? String input)
+        (PositionIndex/of (java.nio.ByteBuffer/wrap (.getBytes ^String input "UTF-8"))
+                          chunk-size tab-length pool)
+        (instance? java.nio.file.Path input)
+        (PositionIndex/of ^java.nio.file.Path input chunk-size tab-length pool)
+        (instance? java.io.File input)
+        (PositionIndex/of (.toPath ^java.io.File input) chunk-size tab-length pool)
+        :else (throw (Exception. (format "can't index %s" input)))))))
+
+(defn- index-position [^PositionIndex index ^DeltaPosition δposition]
+  [(.lines δposition) (.endColumn δposition 0 (.getTabLength index))])
+
+(defn byte-offset-position [^PositionIndex index offset]
+  (index-position index (.atByte index (long offset))))
+
+(defn char-offset-position [^PositionIndex index offset]
+  (index-position index (.atChar index (long offset))))
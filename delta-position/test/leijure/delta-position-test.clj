@@ -35,3 +35,43 @@
   (rmcr (slurp-cl ts1))
   '([\a 1 1] [\b 2 1] [\c 2 2] [\space 2 3] [\d 2 4] [\e 2 5] [\f 2 6]
       [\g 2 7] [\h 2 8] [\space 2 9] [\i 2 10] [\j 2 11])))
+
+;; Combining δpositions is associative, including across tabs and CR/LF.
+(assert
+ (let [parts ["ab\tc" "\r" "\nd\te" "f\tg"]]
+   (all-equal
+    (seq-δposition (apply str parts))
+    (apply combine-δposition (map seq-δposition parts))
+    (reduce combine-δposition (map seq-δposition parts))
+    (combine-δposition (seq-δposition (apply str (take 2 parts)))
+                       (seq-δposition (apply str (drop 2 parts)))))))
+
+(assert
+ (= [[4 1] [0 9] [0 17]]
+    [((juxt :line δposition-column) (seq-δposition ts2))
+     [(:line (seq-δposition "ab\tc")) (δposition-column (seq-δposition "ab\tc"))]
+     [0 (δposition-column (seq-δposition "ab\tc") 7)]]))
+
+;; A position index finds the same positions as a positioned stream,
+;; here with chunks small enough that codepoints straddle their boundaries.
+(assert
+ (let [s (apply str (repeat 10 (str ts2 "λé\f\t")))
+       index (position-index s {:chunk-size 16})
+       offsets (reductions + 0 (map #(count (.getBytes (str %) "UTF-8")) s))]
+   (and (= (.total ^com.google.leijure.PositionIndex index) (seq-δposition s))
+        (all-equal
+         (map (fn [[_ l c]] [l c]) (positioned-stream s))
+         (map #(char-offset-position index %) (range (count s)))
+         (map #(byte-offset-position index %) (butlast offsets))))))
+
+;; Scanning UTF-8 bytes 8 at a time finds the same δposition as going through chars,
+;; and the table-driven char lengths match the encoded lengths in other charsets.
+(assert
+ (let [s (apply str (repeat 5 (str ts2 "λé😀\f\t€x")))]
+   (and (= (seq-δposition s)
+           (seq-δposition (seq s))
+           (utf8-δposition (java.nio.ByteBuffer/wrap (.getBytes s "UTF-8"))))
+        (every? #(= (count (.getBytes s ^String %))
+                    (:byte (seq-δposition s (charset-encoder %)))
+                    (:byte (seq-δposition (seq s) (charset-encoder %))))
+                ["UTF-8" "UTF-16LE" "ISO-8859-1" "Shift_JIS"]))))